@@ -0,0 +1,127 @@
+package com.topbloc.codechallenge.benchmarks;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+// Generates a reproducible dataset on top of the regular seed data and points DatabaseManager at it. A generated
+// dataset is kept under target/bench-db and copied for each run, since write benchmarks modify the working copy.
+//
+// DatabaseManager reads db.path once, so prepare() must run before anything else touches DatabaseManager in the
+// benchmark JVM (JMH forks a fresh JVM per trial by default).
+public class BenchmarkDatabase {
+    private static final long seed = 42;
+
+    public static void prepare(int items, int distributors, int offersPerItem) throws IOException, SQLException {
+        File directory = new File("target/bench-db");
+        directory.mkdirs();
+        File pristine = new File(directory, "items-" + items + "-d" + distributors + "-o" + offersPerItem + ".db");
+        File working = new File(directory, "working.db");
+        System.setProperty("db.path", working.getPath());
+
+        if (!pristine.exists()) {
+            // resetDatabase creates the schema and the 17 seed items against the working path
+            DatabaseManager.resetDatabase();
+            generate(working, items, distributors, offersPerItem);
+            Files.copy(working.toPath(), pristine.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.copy(pristine.toPath(), working.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            new File(working.getPath() + "-wal").delete();
+            new File(working.getPath() + "-shm").delete();
+        }
+        DatabaseManager.connect();
+    }
+
+    // Every (distributor, item) pair in the working copy as distributor << 32 | item, sorted, so benchmarks can add
+    // catalog entries that are known not to exist yet
+    public static long[] catalogPairs() throws SQLException {
+        String path = System.getProperty("db.path");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + new File(path).getAbsolutePath());
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT distributor, item FROM distributor_prices")) {
+            long[] pairs = new long[1024];
+            int count = 0;
+            while (rs.next()) {
+                if (count == pairs.length) pairs = Arrays.copyOf(pairs, count * 2);
+                pairs[count++] = (long) rs.getInt(1) << 32 | rs.getInt(2);
+            }
+            pairs = Arrays.copyOf(pairs, count);
+            Arrays.sort(pairs);
+            return pairs;
+        }
+    }
+
+    private static void generate(File file, int items, int distributors, int offersPerItem) throws SQLException {
+        Random random = new Random(seed);
+        // Seed data uses ids 1-17 and 1-3; generated rows start after them
+        int firstItem = 18;
+        int firstDistributor = 4;
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO distributors (id, name) VALUES (?, ?)")) {
+                for (int i = 0; i < distributors; i++) {
+                    stmt.setInt(1, firstDistributor + i);
+                    stmt.setString(2, "Distributor " + (firstDistributor + i));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            try (PreparedStatement item = conn.prepareStatement("INSERT INTO items (id, name) VALUES (?, ?)");
+                 PreparedStatement stock = conn.prepareStatement("INSERT INTO inventory (item, stock, capacity) VALUES (?, ?, ?)");
+                 PreparedStatement offer = conn.prepareStatement("INSERT INTO distributor_prices (distributor, item, cost) VALUES (?, ?, ?)")) {
+                for (int i = 0; i < items; i++) {
+                    int id = firstItem + i;
+                    item.setInt(1, id);
+                    item.setString(2, "Item " + id);
+                    item.addBatch();
+
+                    // Roughly 5% out of stock, 5% overstocked, the rest spread across the capacity
+                    int capacity = 10 + random.nextInt(90);
+                    int roll = random.nextInt(100);
+                    stock.setInt(1, id);
+                    stock.setInt(2, roll < 5 ? 0 : roll < 10 ? capacity + 1 + random.nextInt(10) : random.nextInt(capacity + 1));
+                    stock.setInt(3, capacity);
+                    stock.addBatch();
+
+                    // Consecutive distributors from a random start, since each (distributor, item) pair is unique
+                    int start = random.nextInt(distributors);
+                    for (int o = 0; o < Math.min(offersPerItem, distributors); o++) {
+                        offer.setInt(1, firstDistributor + (start + o) % distributors);
+                        offer.setInt(2, id);
+                        offer.setFloat(3, 0.05f + random.nextInt(200) / 100f);
+                        offer.addBatch();
+                    }
+
+                    if (i % 10_000 == 9_999) {
+                        item.executeBatch();
+                        stock.executeBatch();
+                        offer.executeBatch();
+                    }
+                }
+                item.executeBatch();
+                stock.executeBatch();
+                offer.executeBatch();
+            }
+            conn.commit();
+            conn.setAutoCommit(true);
+            // The statistics gathered by the migrations describe the 17-row seed data, not this dataset
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ANALYZE");
+                // The database runs in WAL mode; without a checkpoint the rows are still in the -wal file and the
+                // pristine copy made next would be empty
+                stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.topbloc.codechallenge.benchmarks;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Every DatabaseManager read against a generated dataset. Run a single size with -p items=100000.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseManagerReadBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int items;
+
+    @Param({"100"})
+    public int distributors;
+
+    @Param({"3"})
+    public int offersPerItem;
+
+    private SplittableRandom random;
+    private Map<Integer, Integer> planQuantities;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkDatabase.prepare(items, distributors, offersPerItem);
+        random = new SplittableRandom(7);
+        planQuantities = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            planQuantities.put(randomItem(), 10);
+        }
+    }
+
+    private int randomItem() {
+        return 1 + random.nextInt(items + 17);
+    }
+
+    private int randomDistributor() {
+        return 1 + random.nextInt(distributors + 3);
+    }
+
+    @Benchmark
+    public JSONArray getItems() {
+        return DatabaseManager.getItems();
+    }
+
+    @Benchmark
+    public int streamItems() throws Exception {
+        return DatabaseManager.streamItems(OutputStream::nullOutputStream);
+    }
+
+    @Benchmark
+    public JSONArray getOutOfStockItems() {
+        return DatabaseManager.getOutOfStockItems();
+    }
+
+    @Benchmark
+    public JSONArray getOverStock() {
+        return DatabaseManager.getOverStock();
+    }
+
+    @Benchmark
+    public JSONArray getLowStock() {
+        return DatabaseManager.getLowStock();
+    }
+
+    @Benchmark
+    public JSONObject getSpecificItem() {
+        return DatabaseManager.getSpecificItem(randomItem());
+    }
+
+    @Benchmark
+    public JSONArray getDistributors() {
+        return DatabaseManager.getDistributors();
+    }
+
+    @Benchmark
+    public JSONArray getItemsByDistributor() {
+        return DatabaseManager.getItemsByDistributor(randomDistributor());
+    }
+
+    @Benchmark
+    public int streamItemsByDistributor() throws Exception {
+        return DatabaseManager.streamItemsByDistributor(randomDistributor(), OutputStream::nullOutputStream);
+    }
+
+    @Benchmark
+    public JSONArray getDistributorsByItemId() {
+        return DatabaseManager.getDistributorsByItemId(randomItem());
+    }
+
+    @Benchmark
+    public JSONObject getCheapestRestockOption() {
+        return DatabaseManager.getCheapestRestockOption(randomItem(), 25);
+    }
+
+    @Benchmark
+    public JSONObject getRestockPlan() {
+        return DatabaseManager.getRestockPlan(planQuantities);
+    }
+
+    @Benchmark
+    public JSONObject getLowStockRestockPlan() {
+        return DatabaseManager.getLowStockRestockPlan();
+    }
+}
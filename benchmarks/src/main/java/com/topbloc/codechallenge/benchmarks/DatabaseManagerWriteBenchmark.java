@@ -0,0 +1,134 @@
+package com.topbloc.codechallenge.benchmarks;
+
+import com.topbloc.codechallenge.db.DatabaseManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// DatabaseManager writes against a generated dataset. Each trial starts from a fresh copy of the dataset, so the
+// rows these add do not leak into later trials. The contended variants show what group commit buys under load.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseManagerWriteBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int items;
+
+    @Param({"100"})
+    public int distributors;
+
+    @Param({"3"})
+    public int offersPerItem;
+
+    // Item and distributor names are unique, so each insert gets a name of its own
+    private final AtomicLong names = new AtomicLong();
+
+    // Catalog inserts walk the (distributor, item) pairs in order and skip those the dataset already lists, since a
+    // pair can only be listed once. Once the existing distributors run out, new ones are added as they are needed.
+    private final AtomicLong nextPair = new AtomicLong();
+    private long[] existingPairs;
+    private int totalItems;
+    private volatile int totalDistributors;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkDatabase.prepare(items, distributors, offersPerItem);
+        existingPairs = BenchmarkDatabase.catalogPairs();
+        // On top of the 17 seed items and 3 seed distributors
+        totalItems = items + 17;
+        totalDistributors = distributors + 3;
+        // Warm the indexes the write paths keep up to date, as a running server would have
+        DatabaseManager.getItems();
+        DatabaseManager.getLowStock();
+        DatabaseManager.getCheapestRestockOption(1, 1);
+    }
+
+    private int randomItem() {
+        return 1 + ThreadLocalRandom.current().nextInt(items + 17);
+    }
+
+    private int randomDistributor() {
+        return 1 + ThreadLocalRandom.current().nextInt(distributors + 3);
+    }
+
+    private long newCatalogPair() {
+        while (true) {
+            long n = nextPair.getAndIncrement();
+            int distributor = 1 + (int) (n / totalItems);
+            int item = 1 + (int) (n % totalItems);
+            if (distributor > totalDistributors) addDistributorsUpTo(distributor);
+            long pair = (long) distributor << 32 | item;
+            if (Arrays.binarySearch(existingPairs, pair) < 0) return pair;
+        }
+    }
+
+    // Ids are handed out as the highest id plus one, so the distributors added here take the ids the pairs expect
+    private synchronized void addDistributorsUpTo(int distributor) {
+        while (totalDistributors < distributor) {
+            DatabaseManager.addDistributor("Catalog distributor " + (totalDistributors + 1));
+            totalDistributors++;
+        }
+    }
+
+    private String addNewCatalogPair() {
+        long pair = newCatalogPair();
+        return DatabaseManager.addItemToDistributorCatalog((int) (pair >>> 32), (int) pair,
+                ThreadLocalRandom.current().nextInt(1, 300) / 100f);
+    }
+
+    @Benchmark
+    public boolean updateInventoryItem() {
+        return DatabaseManager.updateInventoryItem(randomItem(), ThreadLocalRandom.current().nextInt(100), null);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean updateInventoryItemContended() {
+        return DatabaseManager.updateInventoryItem(randomItem(), ThreadLocalRandom.current().nextInt(100), null);
+    }
+
+    @Benchmark
+    public String updateDistributorCatalogPrice() {
+        return DatabaseManager.updateDistributorCatalogPrice(randomDistributor(), randomItem(),
+                ThreadLocalRandom.current().nextInt(1, 300) / 100f);
+    }
+
+    @Benchmark
+    public boolean addItem() {
+        return DatabaseManager.addItem("Benchmark item " + names.incrementAndGet());
+    }
+
+    @Benchmark
+    public String addDistributor() {
+        return DatabaseManager.addDistributor("Benchmark distributor " + names.incrementAndGet());
+    }
+
+    @Benchmark
+    public String addItemToDistributorCatalog() {
+        return addNewCatalogPair();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String addItemToDistributorCatalogContended() {
+        return addNewCatalogPair();
+    }
+}
@@ -0,0 +1,156 @@
+package com.topbloc.codechallenge.benchmarks;
+
+import com.topbloc.codechallenge.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static spark.Spark.awaitInitialization;
+import static spark.Spark.stop;
+
+// End-to-end route benchmarks: the real server runs in the benchmark JVM and JMH worker threads act as the load
+// generator over HTTP. SampleTime reports latency percentiles per route; run with -t to change the client
+// concurrency (the default of 16 threads keeps the server's pool busy).
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class HttpRoutesBenchmark {
+    @Param({"1000", "100000"})
+    public int items;
+
+    @Param({"100"})
+    public int distributors;
+
+    @Param({"3"})
+    public int offersPerItem;
+
+    @Param({"45678"})
+    public int port;
+
+    // The server answers 503 until its startup pipeline has opened the database and warmed up
+    private static final long readyTimeoutMillis = Long.getLong("bench.readyTimeoutMillis", 10 * 60 * 1000);
+
+    private HttpClient client;
+    private String base;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkDatabase.prepare(items, distributors, offersPerItem);
+        System.setProperty("http.port", Integer.toString(port));
+        Main.main(new String[0]);
+        awaitInitialization();
+        base = "http://localhost:" + port;
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        awaitReady();
+    }
+
+    private void awaitReady() throws Exception {
+        long deadline = System.currentTimeMillis() + readyTimeoutMillis;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/health/ready")).GET().build();
+        while (true) {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200) return;
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Server not ready after " + readyTimeoutMillis + "ms: " + response.body());
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stop();
+    }
+
+    private int get(String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path)).GET().build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        check(path, response.statusCode());
+        return response.body().length;
+    }
+
+    // Random ids deliberately run past the generated rows, so 404 is an expected answer; anything else that isn't
+    // 2xx (a 503 from the load shedder, a 500) would otherwise be timed as if it were a real response
+    private static void check(String path, int status) {
+        if ((status < 200 || status >= 300) && status != 404) {
+            throw new IllegalStateException(path + " answered " + status);
+        }
+    }
+
+    private int randomItem() {
+        return 1 + ThreadLocalRandom.current().nextInt(items + 17);
+    }
+
+    @Benchmark
+    public int items() throws Exception {
+        return get("/items");
+    }
+
+    @Benchmark
+    public int lowStock() throws Exception {
+        return get("/low_stock");
+    }
+
+    @Benchmark
+    public int outOfStock() throws Exception {
+        return get("/out_of_stock");
+    }
+
+    @Benchmark
+    public int inventoryItem() throws Exception {
+        return get("/inventory/item/" + randomItem());
+    }
+
+    @Benchmark
+    public int distributorItems() throws Exception {
+        return get("/distributor/" + (1 + ThreadLocalRandom.current().nextInt(distributors + 3)) + "/items");
+    }
+
+    @Benchmark
+    public int itemDistributors() throws Exception {
+        return get("/item/" + randomItem() + "/distributors");
+    }
+
+    @Benchmark
+    public int cheapestRestock() throws Exception {
+        return get("/restock/cheapest?item_id=" + randomItem() + "&quantity=25");
+    }
+
+    @Benchmark
+    public int updateInventory() throws Exception {
+        String body = "{\"stock\": " + ThreadLocalRandom.current().nextInt(100) + "}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/inventory/" + randomItem()))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        check(request.uri().getPath(), status);
+        return status;
+    }
+}
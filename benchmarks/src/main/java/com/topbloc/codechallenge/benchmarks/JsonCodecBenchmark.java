@@ -0,0 +1,109 @@
+package com.topbloc.codechallenge.benchmarks;
+
+import com.topbloc.codechallenge.db.InventoryRecord;
+import com.topbloc.codechallenge.json.JsonReader;
+import com.topbloc.codechallenge.json.JsonWriter;
+import com.topbloc.codechallenge.requests.InventoryRequest;
+import com.topbloc.codechallenge.requests.RestockPlanRequest;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The request and response work of the routes done the old way, through json-simple maps, and through the streaming
+// codec in com.topbloc.codechallenge.json. Run with -prof gc and compare gc.alloc.rate.norm, the bytes allocated per
+// operation. No database is involved.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+    @Param({"10", "1000"})
+    public int rows;
+
+    private final String inventoryBody = "{\"itemId\": 42, \"stock\": 17, \"capacity\": 60}";
+    private String restockBody;
+    private List<InventoryRecord> records;
+    private final Writer sink = Writer.nullWriter();
+
+    @Setup
+    public void setup() {
+        StringBuilder body = new StringBuilder("{\"items\": [");
+        records = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) body.append(", ");
+            body.append("{\"item_id\": ").append(i + 1).append(", \"quantity\": ").append(10 + i % 90).append('}');
+            records.add(new InventoryRecord(i + 1, "Item " + (i + 1), i % 50, 50 + i % 30));
+        }
+        restockBody = body.append("]}").toString();
+    }
+
+    @Benchmark
+    public int parseInventoryJsonSimple() throws ParseException {
+        JSONObject body = (JSONObject) new JSONParser().parse(inventoryBody);
+        Long itemId = (Long) body.get("itemId");
+        Long stock = (Long) body.get("stock");
+        Long capacity = (Long) body.get("capacity");
+        return itemId.intValue() + stock.intValue() + capacity.intValue();
+    }
+
+    @Benchmark
+    public int parseInventoryCodec() {
+        InventoryRequest body = JsonReader.decode(inventoryBody, InventoryRequest::read);
+        return body.itemId + body.stock + body.capacity;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> parseRestockPlanJsonSimple() throws ParseException {
+        JSONObject body = (JSONObject) new JSONParser().parse(restockBody);
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (Object entry : (JSONArray) body.get("items")) {
+            Long itemId = (Long) ((JSONObject) entry).get("item_id");
+            Long quantity = (Long) ((JSONObject) entry).get("quantity");
+            quantities.merge(itemId.intValue(), quantity.intValue(), Integer::sum);
+        }
+        return quantities;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> parseRestockPlanCodec() {
+        return JsonReader.decode(restockBody, RestockPlanRequest::read).quantities;
+    }
+
+    @Benchmark
+    public void writeInventoryJsonSimple() throws IOException {
+        JSONArray array = new JSONArray();
+        records.forEach(record -> array.add(record.toJson()));
+        sink.write(array.toJSONString());
+    }
+
+    @Benchmark
+    public void writeInventoryCodec() throws IOException {
+        JsonWriter json = new JsonWriter(sink).beginArray();
+        for (InventoryRecord record : records) {
+            record.writeTo(json);
+        }
+        json.endArray();
+    }
+}
@@ -0,0 +1,150 @@
+package com.topbloc.codechallenge;
+
+import com.topbloc.codechallenge.db.ChangeLog;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONObject;
+import spark.Request;
+import spark.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+
+// Serves a ChangeLog, the table changes or the stock alerts, two ways:
+// - GET /changes?after=N&limit=M&wait=ms (or /alerts) returns the events after sequence N as {"events": [...], "next_after": ...,
+//   "gap": ...}. With wait, an empty answer is held back for up to that long until something is published: a long poll.
+// - GET /changes/stream (or /alerts/stream) is a Server-Sent Events stream. Each event carries its sequence as the SSE id, so a client
+//   that reconnects resumes through Last-Event-ID; ?after does the same for a first connection. Without either it
+//   starts at the current end of the log.
+//
+// A waiting poll or an open stream holds a Jetty thread, so both count against cdc.maxSubscribers, shared by every
+// log, instead of the admission limits, which are sized for short requests.
+final class ChangeFeed {
+    private static final int maxBatch = Integer.getInteger("cdc.maxBatch", 500);
+    private static final long maxWaitMillis = Long.getLong("cdc.maxWaitMillis", 30_000);
+    private static final long heartbeatMillis = Long.getLong("cdc.heartbeatMillis", 15_000);
+    private static final int maxSubscribers = Integer.getInteger("cdc.maxSubscribers", 32);
+
+    private static final Semaphore subscribers = new Semaphore(Math.max(0, maxSubscribers));
+
+    private ChangeFeed() {
+    }
+
+    static String poll(ChangeLog log, Request req, Response res) throws IOException, InterruptedException {
+        res.type("application/json");
+        long after;
+        int limit;
+        long wait;
+        try {
+            after = longParam(req.queryParams("after"), 0, "after");
+            limit = (int) Math.min(longParam(req.queryParams("limit"), 100, "limit"), maxBatch);
+            wait = Math.min(longParam(req.queryParams("wait"), 0, "wait"), maxWaitMillis);
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error.toJSONString();
+        }
+
+        ChangeLog.Batch batch = log.since(after, limit);
+        if (batch.events.isEmpty() && !batch.gap && wait > 0) {
+            if (!subscribers.tryAcquire()) LoadShedder.reject(res);
+            try {
+                batch = log.await(after, limit, wait);
+            } finally {
+                subscribers.release();
+            }
+        }
+
+        StringWriter body = new StringWriter();
+        JsonWriter json = new JsonWriter(body).beginObject().name("events").beginArray();
+        for (ChangeLog.Event event : batch.events) {
+            json.rawValue(event.json);
+        }
+        json.endArray()
+                .name("next_after").value(batch.nextAfter)
+                .name("latest").value(log.latestSequence())
+                .name("gap").value(batch.gap)
+                .endObject();
+        return body.toString();
+    }
+
+    // eventType is the SSE event name of the log's entries
+    static String stream(ChangeLog log, String eventType, Request req, Response res) throws IOException {
+        long after;
+        try {
+            String resume = req.headers("Last-Event-ID");
+            String name = "Last-Event-ID";
+            if (resume == null) {
+                resume = req.queryParams("after");
+                name = "after";
+            }
+            after = resume != null ? longParam(resume.trim(), 0, name) : log.latestSequence();
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            res.type("application/json");
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error.toJSONString();
+        }
+        if (!subscribers.tryAcquire()) LoadShedder.reject(res);
+
+        try {
+            // Straight to the servlet stream: Compression would buffer events until the response ends
+            res.raw().setContentType("text/event-stream;charset=utf-8");
+            res.raw().setHeader("Cache-Control", "no-cache");
+            res.raw().setHeader("X-Accel-Buffering", "no");
+            OutputStream out = res.raw().getOutputStream();
+            write(out, "retry: " + Math.max(1, LoadShedder.retryAfterSeconds()) * 1000 + "\n\n");
+            while (true) {
+                ChangeLog.Batch batch = log.await(after, maxBatch, heartbeatMillis);
+                StringBuilder chunk = new StringBuilder();
+                if (batch.gap) {
+                    // The client's state can no longer be patched; it should re-fetch, then carry on from here
+                    chunk.append("event: gap\ndata: {\"next_after\":").append(batch.nextAfter).append("}\n\n");
+                }
+                for (ChangeLog.Event event : batch.events) {
+                    chunk.append("id: ").append(event.sequence).append("\nevent: ").append(eventType)
+                            .append("\ndata: ").append(event.json).append("\n\n");
+                }
+                // A comment line keeps proxies from timing the stream out and finds clients that have gone away
+                if (chunk.length() == 0) chunk.append(": heartbeat\n\n");
+                write(out, chunk.toString());
+                after = batch.nextAfter;
+            }
+        } catch (IOException e) {
+            // The client disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscribers.release();
+        }
+        return "";
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static long longParam(String value, long fallback, String name) {
+        if (value == null || value.isEmpty()) return fallback;
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) return parsed;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(name + " must be a non-negative integer");
+    }
+
+    static JSONObject stats() {
+        JSONObject stats = DatabaseManager.changeLog().stats();
+        stats.put("max_subscribers", maxSubscribers);
+        stats.put("subscribers", maxSubscribers - subscribers.availablePermits());
+        return stats;
+    }
+}
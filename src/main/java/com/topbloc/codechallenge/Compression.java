@@ -0,0 +1,236 @@
+package com.topbloc.codechallenge;
+
+import spark.Request;
+import spark.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+// Negotiated gzip for route responses. Bodies smaller than http.gzip.minBytes go out as they are, since gzip's
+// framing makes them bigger. Responses that carry an ETag are cacheable, so their compressed bytes are kept keyed by
+// URL and ETag and replayed until the data version moves on: the compression cost is paid once per version. The
+// URL includes the query string, which clients choose freely, so the cache is bounded by total bytes as well as by
+// entries, dropping the least recently used first.
+//
+// String bodies are compressed in an after filter. Streaming routes write through output() instead of the raw
+// servlet stream; it buffers up to the threshold before deciding and is finished by the same after filter.
+final class Compression {
+    private static final int minBytes = Integer.getInteger("http.gzip.minBytes", 1024);
+    private static final int cacheEntries = Integer.getInteger("http.gzip.cacheEntries", 256);
+    private static final int cacheMaxBytes = Integer.getInteger("http.gzip.cacheMaxBytes", 8 * 1024 * 1024);
+    private static final long cacheTotalBytes = Long.getLong("http.gzip.cacheTotalBytes", 64L * 1024 * 1024);
+    private static final String streamAttribute = Compression.class.getName() + ".stream";
+
+    private static final Map<String, byte[]> precompressed = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            if (size() <= cacheEntries) return false;
+            cachedBytes -= eldest.getValue().length;
+            return true;
+        }
+    };
+    // Guarded by precompressed
+    private static long cachedBytes;
+
+    private Compression() {
+    }
+
+    static boolean acceptsGzip(Request req) {
+        String accept = req.headers("Accept-Encoding");
+        if (accept == null) return false;
+        for (String part : accept.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+            // q=0 means "not acceptable"
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) <= 0) return false;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // The gzip representation gets its own strong ETag, as the bytes differ from the identity one
+    static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    // Called once the ETag is known: replays the compressed bytes cached for this version, if there are any
+    static boolean serveCached(Request req, Response res, String etag) throws IOException {
+        if (!acceptsGzip(req)) return false;
+        byte[] cached;
+        synchronized (precompressed) {
+            cached = precompressed.get(cacheKey(req, etag));
+        }
+        if (cached == null) return false;
+        res.type("application/json");
+        startGzip(res);
+        res.raw().setContentLength(cached.length);
+        OutputStream out = res.raw().getOutputStream();
+        out.write(cached);
+        out.flush();
+        return true;
+    }
+
+    // Stream for routes that write their body directly; every call for one request returns the same stream
+    static OutputStream output(Request req, Response res) throws IOException {
+        if (!acceptsGzip(req)) return res.raw().getOutputStream();
+        CompressingStream stream = (CompressingStream) req.raw().getAttribute(streamAttribute);
+        if (stream == null) {
+            stream = new CompressingStream(res, cacheKey(req, res.raw().getHeader("ETag")));
+            req.raw().setAttribute(streamAttribute, stream);
+        }
+        return stream;
+    }
+
+    // After filter: completes a streamed body, or compresses a String body Spark has not written yet
+    static void finish(Request req, Response res) throws IOException {
+        CompressingStream stream = (CompressingStream) req.raw().getAttribute(streamAttribute);
+        if (stream != null) {
+            stream.finish();
+            return;
+        }
+
+        String body = res.body();
+        if (body == null || res.raw().isCommitted() || !acceptsGzip(req)) return;
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < minBytes) return;
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(bytes);
+        }
+        byte[] gzipped = compressed.toByteArray();
+        remember(res, cacheKey(req, res.raw().getHeader("ETag")), gzipped);
+
+        startGzip(res);
+        res.raw().setContentLength(gzipped.length);
+        OutputStream out = res.raw().getOutputStream();
+        out.write(gzipped);
+        // Committing the response here makes Spark skip writing the body itself
+        out.flush();
+    }
+
+    // setHeader rather than Response.header, which would add a second ETag next to the identity one
+    private static void startGzip(Response res) {
+        res.raw().setHeader("Content-Encoding", "gzip");
+        res.raw().setHeader("Vary", "Accept-Encoding");
+        String etag = res.raw().getHeader("ETag");
+        if (etag != null && !etag.endsWith("-gzip\"")) res.raw().setHeader("ETag", gzipEtag(etag));
+    }
+
+    private static String cacheKey(Request req, String etag) {
+        if (etag == null) return null;
+        String query = req.queryString();
+        return req.pathInfo() + (query != null ? "?" + query : "") + " " + etag;
+    }
+
+    // Only successful responses are worth replaying
+    private static void remember(Response res, String key, byte[] gzipped) {
+        if (key == null || res.raw().getStatus() != 200 || gzipped.length > cacheMaxBytes) return;
+        synchronized (precompressed) {
+            byte[] replaced = precompressed.put(key, gzipped);
+            cachedBytes += gzipped.length - (replaced != null ? replaced.length : 0);
+            Iterator<byte[]> eldest = precompressed.values().iterator();
+            while (cachedBytes > cacheTotalBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    // Holds the first minBytes of the body; if the body ends before that it is written as is, otherwise gzip starts
+    // and everything goes through it. When the response is cacheable the compressed bytes are also copied aside.
+    private static final class CompressingStream extends OutputStream {
+        private final Response res;
+        private final String cacheKey;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream(minBytes);
+        private ByteArrayOutputStream copy;
+        private GZIPOutputStream gzip;
+        private boolean finished;
+
+        CompressingStream(Response res, String cacheKey) {
+            this.res = res;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (gzip != null) {
+                gzip.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() >= minBytes) startCompressing();
+        }
+
+        private void startCompressing() throws IOException {
+            startGzip(res);
+            OutputStream raw = res.raw().getOutputStream();
+            if (cacheKey != null) copy = new ByteArrayOutputStream();
+            gzip = new GZIPOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    raw.write(b, off, len);
+                    if (copy == null) return;
+                    if (copy.size() + len > cacheMaxBytes) {
+                        copy = null;
+                    } else {
+                        copy.write(b, off, len);
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    raw.flush();
+                }
+            }, 8192);
+            pending.writeTo(gzip);
+            pending = null;
+        }
+
+        // Flushes of a body still under the threshold are held back until it is known whether gzip is used
+        @Override
+        public void flush() throws IOException {
+            if (gzip != null) gzip.flush();
+        }
+
+        void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            if (gzip == null) {
+                OutputStream raw = res.raw().getOutputStream();
+                pending.writeTo(raw);
+                raw.flush();
+                return;
+            }
+            gzip.finish();
+            gzip.flush();
+            if (copy != null) remember(res, cacheKey, copy.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.topbloc.codechallenge;
+
+import org.json.simple.JSONObject;
+import spark.Response;
+import spark.Route;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spark.Spark.halt;
+
+// Admission control for route handlers. At most http.maxInFlight handlers run at once and up to http.maxQueued more
+// wait, for at most http.queueTimeoutMillis, for a slot. Anything past that is turned away straight away with a 503
+// and Retry-After instead of sitting in Jetty's unbounded job queue.
+//
+// Waiting requests hold a Jetty thread, so maxInFlight + maxQueued should stay below http.threads.max. That leaves
+// threads free to reach this check and shed load. Without that headroom, overload would just queue inside Jetty.
+final class LoadShedder {
+    private static final int maxInFlight = Integer.getInteger("http.maxInFlight", 64);
+    private static final int maxQueued = Integer.getInteger("http.maxQueued", 128);
+    private static final long queueTimeoutMillis = Long.getLong("http.queueTimeoutMillis", 1000);
+    private static final int retryAfterSeconds = Integer.getInteger("http.retryAfterSeconds", 1);
+    // Threads Jetty keeps for acceptors and selectors rather than handlers
+    private static final int reservedThreads = 8;
+
+    // Fair, so a request that queued is not overtaken by one that just arrived
+    private static final Semaphore permits = new Semaphore(Math.max(1, maxInFlight), true);
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final AtomicLong admitted = new AtomicLong();
+    private static final AtomicLong waited = new AtomicLong();
+    private static final AtomicLong shed = new AtomicLong();
+    private static volatile int maxThreads;
+
+    private LoadShedder() {
+    }
+
+    static void configure(int threads) {
+        maxThreads = threads;
+        if (maxInFlight > 0 && maxInFlight + maxQueued > threads - reservedThreads) {
+            System.out.println("http.maxInFlight + http.maxQueued (" + (maxInFlight + maxQueued) + ") leaves no " +
+                    "headroom in http.threads.max (" + threads + "); overload will queue in Jetty instead of being shed");
+        }
+    }
+
+    static int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // A non-positive http.maxInFlight turns admission control off
+    static Route admit(Route route) {
+        if (maxInFlight <= 0) return route;
+        return (req, res) -> {
+            if (!acquire()) {
+                shed.incrementAndGet();
+                reject(res);
+            }
+            try {
+                return route.handle(req, res);
+            } finally {
+                permits.release();
+            }
+        };
+    }
+
+    private static boolean acquire() throws InterruptedException {
+        // A zero timeout still respects fairness, unlike the plain tryAcquire()
+        if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return false;
+        }
+        try {
+            waited.incrementAndGet();
+            boolean acquired = permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (acquired) admitted.incrementAndGet();
+            return acquired;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    static void reject(Response res) {
+        res.header("Retry-After", String.valueOf(retryAfterSeconds));
+        res.type("application/json");
+        halt(503, "{\"error\":\"Server is busy, retry later\"}");
+    }
+
+    static JSONObject stats() {
+        JSONObject stats = new JSONObject();
+        stats.put("max_threads", maxThreads);
+        stats.put("max_in_flight", maxInFlight);
+        stats.put("in_flight", maxInFlight > 0 ? maxInFlight - permits.availablePermits() : -1);
+        stats.put("max_queued", maxQueued);
+        stats.put("queued", queued.get());
+        stats.put("queue_timeout_ms", queueTimeoutMillis);
+        stats.put("admitted", admitted.get());
+        stats.put("waited", waited.get());
+        stats.put("shed", shed.get());
+        return stats;
+    }
+}
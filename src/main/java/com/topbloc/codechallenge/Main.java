@@ -1,15 +1,69 @@
 package com.topbloc.codechallenge;
 
+import com.topbloc.codechallenge.alerts.AlertEngine;
+import com.topbloc.codechallenge.alerts.Webhooks;
+import com.topbloc.codechallenge.db.BulkRows;
+import com.topbloc.codechallenge.db.AsyncDatabaseManager;
+import com.topbloc.codechallenge.db.DataVersions;
+import com.topbloc.codechallenge.db.DataVersions.Table;
+import com.topbloc.codechallenge.db.DatabaseBusyException;
 import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.InventoryRecord;
+import com.topbloc.codechallenge.db.ItemRecord;
+import com.topbloc.codechallenge.db.Maintenance;
+import com.topbloc.codechallenge.db.Page;
+import com.topbloc.codechallenge.db.ResultSetJsonWriter;
+import com.topbloc.codechallenge.json.JsonDecoder;
+import com.topbloc.codechallenge.json.JsonException;
+import com.topbloc.codechallenge.json.JsonReader;
+import com.topbloc.codechallenge.json.JsonWriter;
+import com.topbloc.codechallenge.metrics.Metrics;
+import com.topbloc.codechallenge.metrics.SlowQueryLog;
+import com.topbloc.codechallenge.requests.CatalogPriceRequest;
+import com.topbloc.codechallenge.requests.InventoryRequest;
+import com.topbloc.codechallenge.requests.InventoryUpdateRequest;
+import com.topbloc.codechallenge.requests.NameRequest;
+import com.topbloc.codechallenge.requests.RestockPlanRequest;
+import com.topbloc.codechallenge.requests.ThresholdRequest;
+import com.topbloc.codechallenge.requests.WebhookRequest;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import spark.HaltException;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.Spark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import static spark.Spark.*;
 
 public class Main {
     public static void main(String[] args) {
-        DatabaseManager.connect();
+        int port = Integer.getInteger("http.port", 4567);
+        port(port);
+        // Jetty's worker pool; see LoadShedder for how the admission limits should relate to its size
+        int maxThreads = Integer.getInteger("http.threads.max", 200);
+        threadPool(maxThreads, Integer.getInteger("http.threads.min", 8),
+                Integer.getInteger("http.threads.idleTimeoutMillis", 60_000));
+        LoadShedder.configure(maxThreads);
+        // Routes go up first and the database opens in the background; see Startup
+        before((req, res) -> Startup.gate(req, res));
         // Don't change this - required for GET and POST requests with the header 'content-type'
         options("/*",
                 (req, res) -> {
@@ -29,18 +83,225 @@ public class Main {
         //TODO: Add your routes here. a couple of examples are below
         get("/version", (req, res) -> "TopBloc Code Challenge v1.0");
 
+        // Health checks for the load balancer: live once the server is up, ready once startup has finished
+        get("/health/live", (req, res) -> {
+            res.type("application/json");
+            return Startup.live().toJSONString();
+        });
+        get("/health/ready", (req, res) -> {
+            res.type("application/json");
+            if (!Startup.isReady()) res.status(503);
+            return Startup.ready().toJSONString();
+        });
+
+        // Admin routes
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.prometheus();
+        });
+        get("/admin/slow-queries", (req, res) -> {
+            res.type("application/json");
+            return SlowQueryLog.snapshot().toJSONString();
+        });
+        delete("/admin/slow-queries", (req, res) -> {
+            res.type("application/json");
+            SlowQueryLog.clear();
+            return SlowQueryLog.snapshot().toJSONString();
+        });
+        // {"threshold_ms": 50} turns the slow-query log on, a negative threshold turns it off
+        put("/admin/slow-queries/threshold", (req, res) -> {
+            res.type("application/json");
+            ThresholdRequest body = parse(req, ThresholdRequest.decoder("threshold_ms"));
+            if (!body.present) {
+                res.status(400);
+                return "{\"error\": \"threshold_ms must be a number\"}";
+            }
+            SlowQueryLog.setThresholdMillis((long) body.value);
+            return "{\"threshold_ms\": " + SlowQueryLog.thresholdMillis() + "}";
+        });
+        get("/admin/http", (req, res) -> {
+            res.type("application/json");
+            return LoadShedder.stats().toJSONString();
+        });
+        get("/admin/db-executor", (req, res) -> {
+            res.type("application/json");
+            return AsyncDatabaseManager.getExecutorStats().toJSONString();
+        });
+        get("/admin/pool", (req, res) -> {
+            res.type("application/json");
+            return DatabaseManager.getPoolStats().toJSONString();
+        });
+        get("/admin/write-queue", (req, res) -> {
+            res.type("application/json");
+            return DatabaseManager.getWriteQueueStats().toJSONString();
+        });
+        get("/admin/schema", (req, res) -> {
+            res.type("application/json");
+            return DatabaseManager.getSchemaStatus().toJSONString();
+        });
+        get("/admin/changes", (req, res) -> {
+            res.type("application/json");
+            return ChangeFeed.stats().toJSONString();
+        });
+        get("/admin/alerts", (req, res) -> {
+            res.type("application/json");
+            return AlertEngine.stats().toJSONString();
+        });
+        // In-memory engine (engine.inMemory): snapshot sizes and how far SQLite is behind
+        get("/admin/engine", (req, res) -> {
+            res.type("application/json");
+            return DatabaseManager.getEngineStats().toJSONString();
+        });
+        post("/admin/engine/reload", (req, res) -> {
+            res.type("application/json");
+            return DatabaseManager.reloadMemory().toJSONString();
+        });
+        // Online backup, vacuum and fragmentation report, see Maintenance
+        get("/admin/maintenance", (req, res) -> {
+            res.type("application/json");
+            return Maintenance.report().toJSONString();
+        });
+        get("/admin/maintenance/backups", (req, res) -> {
+            res.type("application/json");
+            return Maintenance.listBackups().toJSONString();
+        });
+        // ?name= names the file; without it the backup is timestamped
+        post("/admin/maintenance/backup", (req, res) -> {
+            res.type("application/json");
+            try {
+                JSONObject backup = Maintenance.backup(req.queryParams("name"));
+                res.status(201);
+                return backup.toJSONString();
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                JSONObject error = new JSONObject();
+                error.put("error", e.getMessage());
+                return error.toJSONString();
+            }
+        });
+        post("/admin/maintenance/run", (req, res) -> {
+            res.type("application/json");
+            return Maintenance.runPass().toJSONString();
+        });
+        post("/admin/maintenance/compact", (req, res) -> {
+            res.type("application/json");
+            return Maintenance.compact().toJSONString();
+        });
+        get("/admin/cache", (req, res) -> {
+            res.type("application/json");
+            return DatabaseManager.getCacheStats().toJSONString();
+        });
+        put("/admin/low-stock-threshold", (req, res) -> {
+            res.type("application/json");
+            ThresholdRequest body = parse(req, ThresholdRequest.decoder("threshold"));
+            if (!body.present || body.value < 0) {
+                res.status(400);
+                return "{\"error\": \"threshold must be a non-negative number\"}";
+            }
+            DatabaseManager.setLowStockThreshold(body.value);
+            AlertEngine.reevaluate();
+            return "{\"low_stock_threshold\": " + DatabaseManager.getLowStockThreshold() + "}";
+        });
+
+        // Change data capture: incremental deltas of every write, see ChangeFeed
+        get("/changes", (req, res) -> ChangeFeed.poll(DatabaseManager.changeLog(), req, res));
+        get("/changes/stream", (req, res) -> ChangeFeed.stream(DatabaseManager.changeLog(), "change", req, res));
+
+        // Stock alerts raised as inventory changes, see AlertEngine
+        get("/alerts", (req, res) -> ChangeFeed.poll(AlertEngine.log(), req, res));
+        get("/alerts/stream", (req, res) -> ChangeFeed.stream(AlertEngine.log(), "alert", req, res));
+        get("/alerts/active", (req, res) -> {
+            res.type("application/json");
+            return AlertEngine.active().toJSONString();
+        });
+        get("/alerts/rules", (req, res) -> {
+            res.type("application/json");
+            return AlertEngine.rules().toJSONString();
+        });
+        put("/alerts/rules/:itemId", (req, res) -> {
+            res.type("application/json");
+            int itemId = Integer.parseInt(req.params(":itemId"));
+            ThresholdRequest body = parse(req, ThresholdRequest.decoder("low_stock_threshold"));
+            if (!body.present || body.value < 0) {
+                res.status(400);
+                return "{\"error\": \"low_stock_threshold must be a non-negative number\"}";
+            }
+            AlertEngine.setItemThreshold(itemId, body.value);
+            return AlertEngine.rules().toJSONString();
+        });
+        delete("/alerts/rules/:itemId", (req, res) -> {
+            res.type("application/json");
+            if (!AlertEngine.removeItemThreshold(Integer.parseInt(req.params(":itemId")))) {
+                res.status(404);
+                return "{\"error\": \"No rule for this item\"}";
+            }
+            return AlertEngine.rules().toJSONString();
+        });
+        get("/alerts/webhooks", (req, res) -> {
+            res.type("application/json");
+            return Webhooks.list().toJSONString();
+        });
+        post("/alerts/webhooks", (req, res) -> {
+            res.type("application/json");
+            String url = parse(req, WebhookRequest::read).url;
+            try {
+                int id = Webhooks.register(url);
+                res.status(201);
+                return "{\"id\": " + id + "}";
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                JSONObject error = new JSONObject();
+                error.put("error", e.getMessage());
+                return error.toJSONString();
+            }
+        });
+        delete("/alerts/webhooks/:id", (req, res) -> {
+            res.type("application/json");
+            if (!Webhooks.remove(Integer.parseInt(req.params(":id")))) {
+                res.status(404);
+                return "{\"error\": \"Webhook not found\"}";
+            }
+            return "{\"message\": \"Webhook removed\"}";
+        });
+
+        // Conditional GET: each cacheable route is tagged with the tables its response is built from
+        conditional("/items", Table.ITEMS);
+        conditional("/out_of_stock", Table.INVENTORY, Table.ITEMS);
+        conditional("/overstock", Table.INVENTORY, Table.ITEMS);
+        conditional("/low_stock", Table.INVENTORY, Table.ITEMS);
+        conditional("/inventory/item/:id", Table.INVENTORY, Table.ITEMS);
+        conditional("/distributor", Table.DISTRIBUTORS);
+        conditional("/distributor/:id/items", Table.DISTRIBUTOR_PRICES, Table.ITEMS);
+        conditional("/item/:id/distributors", Table.DISTRIBUTOR_PRICES, Table.DISTRIBUTORS);
+        conditional("/items/detail", Table.ITEMS, Table.INVENTORY, Table.DISTRIBUTOR_PRICES, Table.DISTRIBUTORS);
+        conditional("/item/:id/detail", Table.ITEMS, Table.INVENTORY, Table.DISTRIBUTOR_PRICES, Table.DISTRIBUTORS);
+        conditional("/restock/cheapest", Table.DISTRIBUTOR_PRICES, Table.DISTRIBUTORS);
+        conditional("/restock/split", Table.DISTRIBUTOR_PRICES, Table.DISTRIBUTORS);
+
         //GET Routes (Inventory)
-        get("/items", (req, res) -> DatabaseManager.getItems());
-        get("/out_of_stock", (req, res) -> DatabaseManager.getOutOfStockItems());
-        get("/overstock", (req, res) -> DatabaseManager.getOverStock());
-        get("/low_stock", (req, res) -> DatabaseManager.getLowStock());
+        get("/items", (req, res) -> {
+            if (isPaged(req)) return pagedResponse(req, res, DatabaseManager::streamItems);
+            res.type("application/json");
+            int rows = DatabaseManager.streamItems(() -> Compression.output(req, res));
+            if (rows < 0) {
+                res.status(500);
+                return "{\"error\":\"Could not load items\"}";
+            }
+            // Rows were streamed straight to the response; an empty result still needs a body
+            return rows == 0 ? "[]" : "";
+        });
+        get("/out_of_stock", (req, res) -> streamedArray(req, res, DatabaseManager::streamOutOfStockItems));
+        get("/overstock", (req, res) -> streamedArray(req, res, DatabaseManager::streamOverStock));
+        get("/low_stock", (req, res) -> streamedArray(req, res, DatabaseManager::streamLowStock));
         get("inventory/item/:id", (req, res) -> {
             res.type("application/json");
             try {
                 int itemId = Integer.parseInt(req.params(":id"));
-                JSONObject item = DatabaseManager.getSpecificItem(itemId);
+                InventoryRecord item = DatabaseManager.getInventoryRecord(itemId);
                 if (item != null) {
-                    return item.toJSONString();
+                    StringWriter out = new StringWriter(64);
+                    item.writeTo(new JsonWriter(out));
+                    return out.toString();
                 } else {
                     res.status(404);
                     return "{\"error\":\"Item not found\"}";
@@ -52,7 +313,10 @@ public class Main {
         });
 
         // GET routes (Distributor)
-        get("/distributor", (req, res) -> DatabaseManager.getDistributors());
+        get("/distributor", (req, res) -> {
+            if (isPaged(req)) return pagedResponse(req, res, DatabaseManager::streamDistributors);
+            return streamedArray(req, res, DatabaseManager::streamDistributors);
+        });
         get("/distributor/:id/items", (req, res) -> {
             res.type("application/json");
             int distributorId;
@@ -62,14 +326,22 @@ public class Main {
                 res.status(400);
                 return "{\"error\":\"Invalid distributor ID\"}";
             }
+            if (isPaged(req)) {
+                return pagedResponse(req, res, (page, out) ->
+                        DatabaseManager.streamItemsByDistributor(distributorId, page, out));
+            }
 
-            JSONArray items = DatabaseManager.getItemsByDistributor(distributorId);
-            if (items == null || items.isEmpty()) {
+            int rows = DatabaseManager.streamItemsByDistributor(distributorId, () -> Compression.output(req, res));
+            if (rows < 0) {
+                res.status(500);
+                return "{\"error\": \"Could not load data\"}";
+            }
+            if (rows == 0) {
                 res.status(404);
                 return "{\"error\": \"No items found for distributor\"}";
             }
 
-            return items.toJSONString();
+            return "";
         });
         get("/item/:id/distributors", (req, res) -> {
             res.type("application/json");
@@ -80,21 +352,94 @@ public class Main {
                 res.status(400);
                 return "{\"error\": \"Invalid item ID\"}";
             }
+            if (isPaged(req)) {
+                return pagedResponse(req, res, (page, out) ->
+                        DatabaseManager.streamDistributorsByItemId(itemId, page, out));
+            }
 
-            JSONArray distributors = DatabaseManager.getDistributorsByItemId(itemId);
-            if (distributors == null || distributors.isEmpty()) {
+            int rows = DatabaseManager.streamDistributorsByItemId(itemId, () -> Compression.output(req, res));
+            if (rows < 0) {
+                res.status(500);
+                return "{\"error\": \"Could not load data\"}";
+            }
+            if (rows == 0) {
                 res.status(404);
                 return "{\"error\": \"No distributors found for item\"}";
             }
 
-            return distributors.toJSONString();
+            return "";
+        });
+
+        // The detail of many items in one round trip: ?ids=1,2,3 (up to the page limit) and an optional quantity for
+        // the restock price. Served from the caches and price index with at most one joined query.
+        get("/items/detail", (req, res) -> {
+            res.type("application/json");
+            Set<Integer> ids = new LinkedHashSet<>();
+            int quantity;
+            try {
+                String idsParam = req.queryParams("ids");
+                for (String id : idsParam.split(",")) {
+                    if (!id.trim().isEmpty()) ids.add(Integer.parseInt(id.trim()));
+                }
+                String quantityParam = req.queryParams("quantity");
+                quantity = quantityParam != null ? Integer.parseInt(quantityParam) : 1;
+            } catch (NumberFormatException | NullPointerException e) {
+                res.status(400);
+                return "{\"error\": \"ids must be a comma-separated list of item IDs\"}";
+            }
+            if (ids.isEmpty() || ids.size() > Page.maxLimit) {
+                res.status(400);
+                return "{\"error\": \"between 1 and " + Page.maxLimit + " ids are required\"}";
+            }
+            return streamedArray(req, res, out -> DatabaseManager.streamItemDetails(ids, quantity, out));
+        });
+
+        // Everything a detail view needs in one response. The four lookups run concurrently on the DB executor, so the
+        // route waits for the slowest of them rather than their sum. quantity prices the cheapest restock (default 1).
+        get("/item/:id/detail", (req, res) -> {
+            res.type("application/json");
+            int itemId;
+            int quantity;
+            try {
+                itemId = Integer.parseInt(req.params(":id"));
+                String quantityParam = req.queryParams("quantity");
+                quantity = quantityParam != null ? Integer.parseInt(quantityParam) : 1;
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "{\"error\": \"Invalid item ID or quantity\"}";
+            }
+
+            CompletableFuture<ItemRecord> item = AsyncDatabaseManager.getItemRecord(itemId);
+            CompletableFuture<InventoryRecord> inventory = AsyncDatabaseManager.getInventoryRecord(itemId);
+            CompletableFuture<JSONArray> distributors = AsyncDatabaseManager.getDistributorsByItemId(itemId);
+            CompletableFuture<JSONObject> cheapest = AsyncDatabaseManager.getCheapestRestockOption(itemId, quantity);
+            await(CompletableFuture.allOf(item, inventory, distributors, cheapest));
+
+            if (item.join() == null) {
+                res.status(404);
+                return "{\"error\":\"Item not found\"}";
+            }
+            StringWriter out = new StringWriter(256);
+            JsonWriter json = new JsonWriter(out).beginObject()
+                    .name("id").value(itemId)
+                    .name("name").value(item.join().name)
+                    .name("inventory");
+            if (inventory.join() != null) {
+                inventory.join().writeTo(json);
+            } else {
+                json.nullValue();
+            }
+            JSONArray offers = distributors.join();
+            json.name("distributors").rawValue(offers != null ? offers.toJSONString() : "[]")
+                    .name("cheapest_restock").rawValue(cheapest.join().toJSONString())
+                    .endObject();
+            return out.toString();
         });
 
         // POST/PUT/DELETE Routes
         post("/item", (req, res) -> {
             res.type("application/json");
-            JSONObject body = (JSONObject) new org.json.simple.parser.JSONParser().parse(req.body());
-            String name = (String) body.get("name");
+            String name = parse(req, NameRequest::read).name;
 
             if (name == null || name.trim().isEmpty()) {
                 res.status(400);
@@ -113,20 +458,15 @@ public class Main {
 
         post("/inventory", (req, res) -> {
             res.type("application/json");
+            InventoryRequest body = parse(req, InventoryRequest::read);
 
             try {
-                JSONObject body = (JSONObject) new JSONParser().parse(req.body());
-
-                Long itemId = (Long) body.get("itemId");
-                Long stock = (Long) body.get("stock");
-                Long capacity = (Long) body.get("capacity");
-
-                if (itemId == null || stock == null || capacity == null) {
+                if (!body.complete) {
                     res.status(400);
                     return "{\"error\": \"itemId, stock, and capacity are required.\"}";
                 }
 
-                boolean success = DatabaseManager.addToInventory(itemId.intValue(), stock.intValue(), capacity.intValue());
+                boolean success = DatabaseManager.addToInventory(body.itemId, body.stock, body.capacity);
 
                 if (success) {
                     res.status(201);
@@ -145,12 +485,11 @@ public class Main {
         put("/inventory/:id", (req, res) -> {
             res.type("application/json");
             int itemId = Integer.parseInt(req.params(":id"));
+            InventoryUpdateRequest body = parse(req, InventoryUpdateRequest::read);
 
             try {
-                JSONObject body = (JSONObject) new JSONParser().parse(req.body());
-
-                Integer stock = body.get("stock") != null ? ((Long) body.get("stock")).intValue() : null;
-                Integer capacity = body.get("capacity") != null ? ((Long) body.get("capacity")).intValue() : null;
+                Integer stock = body.hasStock ? body.stock : null;
+                Integer capacity = body.hasCapacity ? body.capacity : null;
 
                 boolean success = DatabaseManager.updateInventoryItem(itemId, stock, capacity);
 
@@ -170,8 +509,7 @@ public class Main {
         post("/distributors", (req, res) -> {
             res.type("application/json");
 
-            JSONObject body = (JSONObject) new JSONParser().parse(req.body());
-            String name = (String) body.get("name");
+            String name = parse(req, NameRequest::read).name;
 
             if (name == null || name.isEmpty()) {
                 res.status(400);
@@ -185,29 +523,38 @@ public class Main {
         post("/distributor-catalog", (req, res) -> {
             res.type("application/json");
 
-            JSONObject body = (JSONObject) new JSONParser().parse(req.body());
-
-            int distributorId = ((Long) body.get("distributor_id")).intValue();
-            int itemId = ((Long) body.get("item_id")).intValue();
-            float cost = ((Double) body.get("cost")).floatValue();
+            CatalogPriceRequest body = parse(req, CatalogPriceRequest::read);
+            if (!body.complete) {
+                res.status(400);
+                return catalogFieldsRequired;
+            }
 
-            String result = DatabaseManager.addItemToDistributorCatalog(distributorId, itemId, cost);
+            String result = DatabaseManager.addItemToDistributorCatalog(body.distributorId, body.itemId, body.cost);
             return "{\"message\": \"" + result + "\"}";
         });
 
         put("/distributor-catalog", (req, res) -> {
             res.type("application/json");
 
-            JSONObject body = (JSONObject) new JSONParser().parse(req.body());
-
-            int distributorId = ((Long) body.get("distributor_id")).intValue();
-            int itemId = ((Long) body.get("item_id")).intValue();
-            float newCost = ((Double) body.get("cost")).floatValue();
+            CatalogPriceRequest body = parse(req, CatalogPriceRequest::read);
+            if (!body.complete) {
+                res.status(400);
+                return catalogFieldsRequired;
+            }
 
-            String result = DatabaseManager.updateDistributorCatalogPrice(distributorId, itemId, newCost);
+            String result = DatabaseManager.updateDistributorCatalogPrice(body.distributorId, body.itemId, body.cost);
             return "{\"message\": \"" + result + "\"}";
         });
 
+        // Bulk routes take a JSON array, or newline-delimited JSON when sent as application/x-ndjson. Like the single-row
+        // POSTs they only insert, reporting rows that already exist as failed; ?upsert=true overwrites those instead.
+        post("/item/bulk", (req, res) -> bulkResponse(req, res, DatabaseManager::bulkAddItems));
+        post("/distributors/bulk", (req, res) -> bulkResponse(req, res, DatabaseManager::bulkAddDistributors));
+        post("/inventory/bulk", (req, res) -> bulkResponse(req, res,
+                rows -> DatabaseManager.bulkAddToInventory(rows, isUpsert(req))));
+        post("/distributor-catalog/bulk", (req, res) -> bulkResponse(req, res,
+                rows -> DatabaseManager.bulkAddToDistributorCatalog(rows, isUpsert(req))));
+
         get("/restock/cheapest", (req, res) -> {
             res.type("application/json");
 
@@ -217,6 +564,51 @@ public class Main {
             return DatabaseManager.getCheapestRestockOption(itemId, quantity).toJSONString();
         });
 
+        // available is a comma-separated list of distributor_id:quantity; unlisted distributors are unlimited
+        get("/restock/split", (req, res) -> {
+            res.type("application/json");
+
+            int itemId;
+            int quantity;
+            Map<Integer, Integer> available = new HashMap<>();
+            try {
+                itemId = Integer.parseInt(req.queryParams("item_id"));
+                quantity = Integer.parseInt(req.queryParams("quantity"));
+                String availableParam = req.queryParams("available");
+                if (availableParam != null && !availableParam.isEmpty()) {
+                    for (String entry : availableParam.split(",")) {
+                        String[] parts = entry.split(":");
+                        available.put(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                res.status(400);
+                return "{\"error\": \"item_id and quantity are required; available must look like 1:100,2:50\"}";
+            }
+            if (quantity < 0) {
+                res.status(400);
+                return "{\"error\": \"quantity must not be negative\"}";
+            }
+
+            return DatabaseManager.getCheapestSplitRestock(itemId, quantity, available).toJSONString();
+        });
+
+        // Body is either {"items": [{"item_id": 1, "quantity": 10}, ...]} or {"fill": "low_stock"}
+        post("/restock/plan", (req, res) -> {
+            res.type("application/json");
+
+            RestockPlanRequest body = parse(req, RestockPlanRequest::read);
+            if (body.fillLowStock) {
+                return DatabaseManager.getLowStockRestockPlan().toJSONString();
+            }
+            if (body.quantities == null) {
+                res.status(400);
+                return "{\"error\": \"items array or fill=low_stock is required\"}";
+            }
+
+            return DatabaseManager.getRestockPlan(body.quantities).toJSONString();
+        });
+
         delete("/inventory/:item_id", (req, res) -> {
             res.type("application/json");
             int itemId = Integer.parseInt(req.params(":item_id"));
@@ -229,5 +621,228 @@ public class Main {
             return DatabaseManager.deleteDistributorById(id).toJSONString();
         });
 
+        // Request bodies that are not valid JSON, or have fields of the wrong type, are the client's fault
+        exception(JsonException.class, (e, req, res) -> {
+            res.status(400);
+            res.type("application/json");
+            JSONObject error = new JSONObject();
+            error.put("error", "Invalid request body: " + e.getMessage());
+            res.body(error.toJSONString());
+        });
+
+        // The connection pool is saturated; like a shed request, the client should back off and retry
+        exception(DatabaseBusyException.class, (e, req, res) -> {
+            res.status(503);
+            res.header("Retry-After", String.valueOf(LoadShedder.retryAfterSeconds()));
+            res.type("application/json");
+            res.body("{\"error\":\"Database is busy, retry later\"}");
+        });
+
+        // Negotiated gzip for large bodies, see Compression
+        after((req, res) -> Compression.finish(req, res));
+
+        Startup.run(port, Boolean.parseBoolean(System.getProperty("alerts.enabled", "true")));
+    }
+
+    private static final String catalogFieldsRequired =
+            "{\"error\": \"distributor_id, item_id, and cost are required.\"}";
+
+    // Spark 2.5 handlers are synchronous, so a route composes its futures and then waits once, here. Failures come out
+    // as their original exception, so a DatabaseBusyException still becomes a 503.
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    // Decodes the request body straight into its typed form; a JsonException ends up as a 400 via the handler in main
+    private static <T> T parse(Request req, JsonDecoder<T> decoder) {
+        return JsonReader.decode(req.body(), decoder);
+    }
+
+    // Route registration in this class goes through these rather than Spark's static methods of the same name, so
+    // every route is timed and counted under its path pattern and passes admission control
+    private static void get(String path, Route route) {
+        Spark.get(path, timed("GET", path, admitted(path, route)));
+    }
+
+    private static void post(String path, Route route) {
+        Spark.post(path, timed("POST", path, admitted(path, route)));
+    }
+
+    private static void put(String path, Route route) {
+        Spark.put(path, timed("PUT", path, admitted(path, route)));
+    }
+
+    private static void delete(String path, Route route) {
+        Spark.delete(path, timed("DELETE", path, admitted(path, route)));
+    }
+
+    // Metrics, health and admin routes are never shed, so an overloaded server can still be observed and tuned. The change
+    // and alert feeds are served from memory and limit their long-lived subscribers themselves.
+    private static final Set<String> feedPaths = Set.of("/changes", "/changes/stream", "/alerts", "/alerts/stream");
+
+    private static Route admitted(String path, Route route) {
+        if (path.equals("/metrics") || path.startsWith("/health/") || path.startsWith("/admin/")
+                || feedPaths.contains(path)) {
+            return route;
+        }
+        return LoadShedder.admit(route);
+    }
+
+    private static Route timed(String method, String path, Route route) {
+        Metrics.Series series = Metrics.route(method, path);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                Object result = route.handle(req, res);
+                countStatus(series, res.raw().getStatus());
+                return result;
+            } catch (HaltException e) {
+                countStatus(series, e.statusCode());
+                throw e;
+            } catch (JsonException e) {
+                series.clientError();
+                throw e;
+            } catch (DatabaseBusyException e) {
+                countStatus(series, 503);
+                throw e;
+            } catch (Exception e) {
+                series.error();
+                throw e;
+            } finally {
+                series.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    private static void countStatus(Metrics.Series series, int status) {
+        if (status >= 500) {
+            series.error();
+        } else if (status >= 400) {
+            series.clientError();
+        }
+    }
+
+    // Tags GET responses on the path with an ETag and Last-Modified built from the tables' data versions, and answers
+    // a matching If-None-Match with 304 before the route runs, so nothing is queried or serialized
+    private static void conditional(String path, Table... tables) {
+        before(path, (req, res) -> {
+            if (!"GET".equals(req.requestMethod())) return;
+            DataVersions versions = DatabaseManager.dataVersions();
+            String etag = versions.etag(tables);
+            res.header("ETag", etag);
+            res.header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Instant.ofEpochMilli(versions.lastModified(tables)).atZone(ZoneOffset.UTC)));
+            // Clients may keep the body but must revalidate, which is now a cheap 304
+            res.header("Cache-Control", "no-cache");
+            res.header("Vary", "Accept-Encoding");
+            if (etagMatches(req.headers("If-None-Match"), etag)) {
+                halt(304);
+            }
+            // Already committed with the compressed bytes of this version; Spark writes nothing further
+            if (Compression.serveCached(req, res, etag)) {
+                halt(200, "");
+            }
+        });
+    }
+
+    // If-None-Match uses the weak comparison, so a W/ prefix is ignored; "*" matches any current representation
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag) || tag.equals(Compression.gzipEtag(etag))) return true;
+        }
+        return false;
+    }
+
+    // For routes that stream a JSON array through Compression; nothing is opened for an empty result
+    private static String streamedArray(Request req, Response res, StreamedQuery query) throws IOException {
+        res.type("application/json");
+        int rows = query.stream(() -> Compression.output(req, res));
+        if (rows < 0) {
+            res.status(500);
+            return "{\"error\":\"Could not load data\"}";
+        }
+        return rows == 0 ? "[]" : "";
+    }
+
+    private interface StreamedQuery {
+        int stream(ResultSetJsonWriter.OutputOpener out) throws IOException;
+    }
+
+    private interface PagedQuery {
+        int stream(Page page, ResultSetJsonWriter.OutputOpener out) throws IOException;
+    }
+
+    private static boolean isPaged(Request req) {
+        return req.queryParams("after") != null || req.queryParams("limit") != null || req.queryParams("fields") != null;
+    }
+
+    // List routes take after (exclusive id cursor), limit and fields (comma-separated). With after or limit the page
+    // is wrapped as {"data": [...], "next_after": <cursor or null>}; fields on its own keeps the plain array.
+    private static String pagedResponse(Request req, Response res, PagedQuery query) throws IOException {
+        res.type("application/json");
+        boolean envelope = req.queryParams("after") != null || req.queryParams("limit") != null;
+        Page page;
+        int rows;
+        try {
+            page = Page.fromParams(req.queryParams("after"), req.queryParams("limit"), req.queryParams("fields"), envelope);
+            rows = query.stream(page, () -> {
+                OutputStream out = Compression.output(req, res);
+                if (envelope) out.write("{\"data\":".getBytes(StandardCharsets.UTF_8));
+                return out;
+            });
+        } catch (IllegalArgumentException e) {
+            res.status(400);
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error.toJSONString();
+        }
+
+        if (rows < 0) {
+            res.status(500);
+            return "{\"error\":\"Could not load page\"}";
+        }
+        if (!envelope) return rows == 0 ? "[]" : "";
+        String next = ",\"next_after\":" + page.nextAfter() + "}";
+        if (rows == 0) return "{\"data\":[]" + next;
+        // The array has already been streamed; close the envelope on the same stream
+        OutputStream out = Compression.output(req, res);
+        out.write(next.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return "";
+    }
+
+    private static boolean isUpsert(Request req) {
+        return "true".equals(req.queryParams("upsert"));
+    }
+
+    private static String bulkResponse(Request req, Response res, Function<BulkRows, JSONObject> load) {
+        res.type("application/json");
+        BulkRows rows;
+        try {
+            String contentType = req.contentType();
+            if (contentType != null && contentType.contains("ndjson")) {
+                rows = BulkRows.fromNdjson(new BufferedReader(
+                        new InputStreamReader(req.raw().getInputStream(), StandardCharsets.UTF_8)));
+            } else {
+                rows = BulkRows.fromJsonArray(req.body());
+            }
+        } catch (Exception e) {
+            res.status(400);
+            return "{\"error\": \"Request body must be a JSON array or NDJSON\"}";
+        }
+
+        JSONObject result = load.apply(rows);
+        if (result.containsKey("error")) {
+            res.status(500);
+        }
+        return result.toJSONString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,210 @@
+package com.topbloc.codechallenge;
+
+import com.topbloc.codechallenge.alerts.AlertEngine;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.Maintenance;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static spark.Spark.halt;
+
+// Startup pipeline. Routes are registered and Jetty is listening before the database is opened, so /health/live
+// answers straight away. The pipeline then runs in the background:
+//   1. database: open the pool, bring the schema up to date and schedule maintenance (see Maintenance)
+//   2. in parallel: load the caches, indexes and statements (DatabaseManager.warmUp), start the alert engine, and
+//      warm the route handlers with startup.warmupRounds rounds of loopback GETs over startup.warmupPaths
+// /health/ready turns 200 once all of it has finished. Until then every other route answers 503 with Retry-After,
+// so a load balancer holds traffic back instead of sending the first requests into cold caches and a cold JIT.
+//
+// Only the database step can fail startup; a warm-up step that fails is reported and otherwise ignored.
+final class Startup {
+    private static final int warmupRounds = Integer.getInteger("startup.warmupRounds", 50);
+    private static final String warmupPaths = System.getProperty("startup.warmupPaths",
+            "/items,/distributor,/low_stock,/out_of_stock,/overstock,/inventory/item/1,/distributor/1/items," +
+                    "/item/1/distributors,/item/1/detail,/restock/cheapest?item_id=1&quantity=10");
+    private static final long warmupTimeoutMillis = Long.getLong("startup.warmupTimeoutMillis", 2000);
+    // Warm-up requests carry this, which lets them through the gate; it never leaves the process
+    private static final String warmupHeader = "X-Warmup";
+    private static final String warmupToken = UUID.randomUUID().toString();
+
+    private enum State { STARTING, READY, FAILED }
+
+    private static final class Step {
+        final String name;
+        volatile String status = "pending";
+        volatile long millis;
+        volatile String detail;
+
+        Step(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final long startedAt = System.currentTimeMillis();
+    private static final List<Step> steps = new ArrayList<>();
+    private static volatile State state = State.STARTING;
+    private static volatile boolean databaseOpen;
+    private static volatile long readyAt;
+
+    private Startup() {
+    }
+
+    // Runs first of all the before filters
+    static void gate(Request req, Response res) {
+        if (isReady() || "OPTIONS".equals(req.requestMethod())) return;
+        String path = req.pathInfo();
+        if (path.startsWith("/health/") || path.equals("/metrics") || path.equals("/version")) return;
+        if (databaseOpen && warmupToken.equals(req.headers(warmupHeader))) return;
+        res.header("Retry-After", String.valueOf(LoadShedder.retryAfterSeconds()));
+        res.type("application/json");
+        halt(503, state == State.FAILED ? "{\"error\":\"Startup failed\"}"
+                : state == State.READY ? "{\"error\":\"Reloading the in-memory engine, retry later\"}"
+                : "{\"error\":\"Starting up, retry later\"}");
+    }
+
+    static void run(int port, boolean alerts) {
+        Step database = step("database");
+        Step caches = step("caches");
+        Step alertEngine = step("alerts");
+        Step routes = step("routes");
+
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3, task -> {
+            Thread thread = new Thread(task, "startup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture.runAsync(() -> time(database, () -> {
+            DatabaseManager.connect();
+            if (!DatabaseManager.isConnected()) throw new IllegalStateException("Could not open the database");
+            databaseOpen = true;
+            if (Boolean.parseBoolean(System.getProperty("maintenance.enabled", "true"))) Maintenance.start();
+            return null;
+        }), executor).thenCompose(ignored -> CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> time(caches,
+                        () -> DatabaseManager.warmUp() + " statements prepared"), executor),
+                CompletableFuture.runAsync(() -> time(alertEngine, () -> {
+                    if (!alerts) return "disabled";
+                    AlertEngine.start();
+                    return null;
+                }), executor),
+                CompletableFuture.runAsync(() -> time(routes, () -> warmRoutes(port)), executor)
+        )).whenComplete((ignored, failure) -> {
+            executor.shutdown();
+            if (failure != null) {
+                state = State.FAILED;
+                System.out.println("Startup failed: " + database.detail);
+                return;
+            }
+            readyAt = System.currentTimeMillis();
+            state = State.READY;
+            System.out.println("Ready in " + (readyAt - startedAt) + "ms");
+        });
+    }
+
+    private interface Work {
+        String run() throws Exception;
+    }
+
+    private static synchronized Step step(String name) {
+        Step step = new Step(name);
+        steps.add(step);
+        return step;
+    }
+
+    // Rethrows only for the database step, whose failure fails the pipeline
+    private static void time(Step step, Work work) {
+        step.status = "running";
+        long start = System.currentTimeMillis();
+        try {
+            step.detail = work.run();
+            step.status = "done";
+        } catch (Exception e) {
+            step.status = "failed";
+            step.detail = e.toString();
+            System.out.println("Startup step " + step.name + " failed: " + e);
+            if (step.name.equals("database")) throw new IllegalStateException(e);
+        } finally {
+            step.millis = System.currentTimeMillis() - start;
+        }
+    }
+
+    // Sends every warm-up path through Jetty, the filters and the handler, with and without gzip, so the code the
+    // first real requests take is already loaded and compiled. These requests show up in /metrics like any other.
+    private static String warmRoutes(int port) throws IOException, InterruptedException {
+        Spark.awaitInitialization();
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(warmupTimeoutMillis)).build();
+        int sent = 0;
+        int failed = 0;
+        for (int round = 0; round < warmupRounds; round++) {
+            for (String path : warmupPaths.split(",")) {
+                if (path.trim().isEmpty()) continue;
+                HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path.trim()))
+                        .timeout(Duration.ofMillis(warmupTimeoutMillis))
+                        .header(warmupHeader, warmupToken)
+                        .header("Accept-Encoding", round % 2 == 0 ? "gzip" : "identity")
+                        .GET()
+                        .build();
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                sent++;
+                if (response.statusCode() >= 500) failed++;
+            }
+        }
+        return sent + " requests, " + failed + " failed";
+    }
+
+    // A started service also stops being ready while the in-memory engine reloads after SQLite rejected one of its
+    // writes, so nothing is served from a copy known to disagree with the database
+    static boolean isReady() {
+        return state == State.READY && !DatabaseManager.isMemoryDiverged();
+    }
+
+    static JSONObject live() {
+        JSONObject live = new JSONObject();
+        live.put("status", "live");
+        live.put("uptime_ms", System.currentTimeMillis() - startedAt);
+        return live;
+    }
+
+    static synchronized JSONObject ready() {
+        JSONArray list = new JSONArray();
+        for (Step step : steps) {
+            JSONObject entry = new JSONObject();
+            entry.put("name", step.name);
+            entry.put("status", step.status);
+            entry.put("ms", step.millis);
+            entry.put("detail", step.detail);
+            list.add(entry);
+        }
+        JSONObject ready = new JSONObject();
+        ready.put("status", state == State.READY && !isReady() ? "reloading" : state.name().toLowerCase());
+        ready.put("startup_ms", state == State.READY ? readyAt - startedAt : null);
+        ready.put("steps", list);
+        JSONObject engine = DatabaseManager.getEngineStats();
+        if (Boolean.TRUE.equals(engine.get("in_memory"))) {
+            JSONObject persister = new JSONObject();
+            persister.put("skipped", engine.get("skipped"));
+            persister.put("diverged", engine.get("diverged"));
+            persister.put("last_error", engine.get("last_error"));
+            ready.put("engine", persister);
+        }
+        return ready;
+    }
+}
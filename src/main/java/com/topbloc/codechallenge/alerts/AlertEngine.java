@@ -0,0 +1,269 @@
+package com.topbloc.codechallenge.alerts;
+
+import com.topbloc.codechallenge.db.ChangeLog;
+import com.topbloc.codechallenge.db.DatabaseManager;
+import com.topbloc.codechallenge.db.InventoryListener;
+import com.topbloc.codechallenge.db.InventoryRecord;
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stock alerts pushed as inventory changes instead of clients polling /low_stock. Each committed inventory write is
+// classified on arrival, in O(1): out of stock, overstock, low stock (stock / capacity below the item's rule, or the
+// global low-stock threshold) or ok. Only changes of condition become alerts, so repeated writes that leave an item
+// low raise nothing new.
+//
+// Alerts for one item are debounced: after one is sent, the next waits until alerts.debounceMillis have passed and
+// then reports the item's condition at that point, if it still differs. An item flapping around a threshold costs at
+// most one alert per window, and the last alert always matches the row.
+//
+// Alerts go into their own ChangeLog, served like the change feed (/alerts, /alerts/stream) and delivered in batches
+// to the registered webhooks (see Webhooks).
+public final class AlertEngine {
+    public enum Condition {
+        OK("ok"), LOW_STOCK("low_stock"), OUT_OF_STOCK("out_of_stock"), OVERSTOCK("overstock");
+
+        final String label;
+
+        Condition(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final class ItemState {
+        InventoryRecord record;
+        Condition current = Condition.OK;
+        Condition reported = Condition.OK;
+        long reportedAt;
+        boolean pending;
+    }
+
+    private static final long debounceMillis = Long.getLong("alerts.debounceMillis", 5000);
+    private static final ChangeLog alerts = new ChangeLog(Integer.getInteger("alerts.capacity", 10_000));
+    private static final Map<Integer, ItemState> states = new HashMap<>();
+    private static final Map<Integer, Double> itemThresholds = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService scheduler = createScheduler();
+    private static volatile boolean started;
+    private static long raised;
+    private static long suppressed;
+
+    private AlertEngine() {
+    }
+
+    // Two threads, so debounce timers still fire while a webhook delivery is waiting on a slow endpoint
+    private static ScheduledExecutorService createScheduler() {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2, task -> {
+            Thread thread = new Thread(task, "alerts-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    static ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    // Current rows are taken as the starting point, so items that are already low raise nothing until they change
+    public static synchronized void start() {
+        if (started) return;
+        started = true;
+        DatabaseManager.addInventoryListener(new InventoryListener() {
+            private boolean seeded;
+
+            @Override
+            public void inventoryChanged(int itemId, InventoryRecord record) {
+                update(itemId, record);
+            }
+
+            @Override
+            public void inventoryLoaded(List<InventoryRecord> records) {
+                load(records, seeded);
+                seeded = true;
+            }
+        });
+        Webhooks.start();
+    }
+
+    public static ChangeLog log() {
+        return alerts;
+    }
+
+    private static synchronized void update(int itemId, InventoryRecord record) {
+        ItemState state = states.get(itemId);
+        if (state == null) {
+            if (record == null) return;
+            state = new ItemState();
+            states.put(itemId, state);
+        }
+        state.record = record;
+        state.current = record != null ? classify(record) : Condition.OK;
+        report(itemId, state);
+    }
+
+    private static synchronized void load(List<InventoryRecord> records, boolean notify) {
+        Set<Integer> present = new HashSet<>();
+        for (InventoryRecord record : records) {
+            present.add(record.id);
+            if (notify) {
+                update(record.id, record);
+            } else {
+                ItemState state = new ItemState();
+                state.record = record;
+                state.current = classify(record);
+                state.reported = state.current;
+                states.put(record.id, state);
+            }
+        }
+        for (Integer itemId : states.keySet().toArray(new Integer[0])) {
+            if (!present.contains(itemId)) update(itemId, null);
+        }
+    }
+
+    // Re-checks every item, e.g. after the global low-stock threshold moved
+    public static synchronized void reevaluate() {
+        states.forEach((itemId, state) -> {
+            if (state.record == null) return;
+            state.current = classify(state.record);
+            report(itemId, state);
+        });
+    }
+
+    private static Condition classify(InventoryRecord record) {
+        if (record.stock == 0) return Condition.OUT_OF_STOCK;
+        if (record.stock > record.capacity) return Condition.OVERSTOCK;
+        // As in the low-stock route, an item without capacity has no ratio and is never low
+        if (record.capacity != 0 && (double) record.stock / record.capacity < threshold(record.id)) {
+            return Condition.LOW_STOCK;
+        }
+        return Condition.OK;
+    }
+
+    private static double threshold(int itemId) {
+        Double rule = itemThresholds.get(itemId);
+        return rule != null ? rule : DatabaseManager.getLowStockThreshold();
+    }
+
+    private static void report(int itemId, ItemState state) {
+        if (state.current == state.reported) {
+            forgetIfIdle(itemId, state);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long wait = state.reportedAt + debounceMillis - now;
+        if (wait > 0) {
+            if (!state.pending) {
+                state.pending = true;
+                suppressed++;
+                scheduler.schedule(() -> debounced(itemId), wait, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+
+        Condition previous = state.reported;
+        Condition condition = state.current;
+        InventoryRecord record = state.record;
+        double threshold = threshold(itemId);
+        state.reported = condition;
+        state.reportedAt = now;
+        raised++;
+        alerts.append(json -> writeAlert(json, itemId, condition, previous, threshold, record));
+        forgetIfIdle(itemId, state);
+    }
+
+    private static synchronized void debounced(int itemId) {
+        ItemState state = states.get(itemId);
+        if (state == null) return;
+        state.pending = false;
+        report(itemId, state);
+    }
+
+    // A deleted row whose last alert was "ok" has nothing left to track
+    private static void forgetIfIdle(int itemId, ItemState state) {
+        if (state.record == null && !state.pending && state.reported == Condition.OK) states.remove(itemId);
+    }
+
+    private static void writeAlert(JsonWriter json, int itemId, Condition condition, Condition previous,
+                                   double threshold, InventoryRecord record) throws IOException {
+        json.name("item_id").value(itemId)
+                .name("alert").value(condition.label)
+                .name("previous").value(previous.label)
+                .name("low_stock_threshold").value(threshold)
+                .name("data");
+        if (record != null) {
+            record.writeTo(json);
+        } else {
+            json.nullValue();
+        }
+    }
+
+    // Per-item low-stock ratio, overriding the global threshold for that item
+    public static synchronized void setItemThreshold(int itemId, double threshold) {
+        itemThresholds.put(itemId, threshold);
+        recheck(itemId);
+    }
+
+    public static synchronized boolean removeItemThreshold(int itemId) {
+        boolean removed = itemThresholds.remove(itemId) != null;
+        if (removed) recheck(itemId);
+        return removed;
+    }
+
+    private static void recheck(int itemId) {
+        ItemState state = states.get(itemId);
+        if (state == null || state.record == null) return;
+        state.current = classify(state.record);
+        report(itemId, state);
+    }
+
+    public static JSONObject rules() {
+        JSONObject items = new JSONObject();
+        new TreeMap<>(itemThresholds).forEach((itemId, threshold) -> items.put(String.valueOf(itemId), threshold));
+        JSONObject rules = new JSONObject();
+        rules.put("low_stock_threshold", DatabaseManager.getLowStockThreshold());
+        rules.put("items", items);
+        return rules;
+    }
+
+    // Items whose last alert was anything but ok, by item id
+    public static synchronized JSONArray active() {
+        JSONArray active = new JSONArray();
+        new TreeMap<>(states).forEach((itemId, state) -> {
+            if (state.reported == Condition.OK) return;
+            JSONObject alert = new JSONObject();
+            alert.put("item_id", itemId);
+            alert.put("alert", state.reported.label);
+            // Items already in that state at startup have no known start
+            alert.put("since", state.reportedAt > 0 ? state.reportedAt : null);
+            alert.put("data", state.record != null ? state.record.toJson() : null);
+            active.add(alert);
+        });
+        return active;
+    }
+
+    public static synchronized JSONObject stats() {
+        JSONObject stats = alerts.stats();
+        stats.put("started", started);
+        stats.put("tracked_items", states.size());
+        stats.put("raised", raised);
+        stats.put("debounced", suppressed);
+        stats.put("debounce_ms", debounceMillis);
+        stats.put("webhooks", Webhooks.count());
+        return stats;
+    }
+}
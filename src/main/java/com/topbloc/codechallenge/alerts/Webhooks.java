@@ -0,0 +1,189 @@
+package com.topbloc.codechallenge.alerts;
+
+import com.topbloc.codechallenge.db.ChangeLog;
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Delivers alerts to registered webhooks. Every alerts.batchMillis each webhook is sent everything raised since its
+// last successful delivery as one POST of {"alerts": [...], "gap": ...}, at most alerts.maxBatch alerts at a time.
+// A failed POST is retried with the same alerts on the next round, so delivery is at least once and in order; a
+// webhook that stays down long enough for the alert log to wrap gets a gap flag instead of the dropped alerts.
+//
+// Only loopback URLs are accepted, and only as literals (localhost, 127.0.0.0/8, [::1]): webhooks are for agents on
+// the same host, and the server must not be usable to send requests into the rest of the network.
+public final class Webhooks {
+    private static final long batchMillis = Long.getLong("alerts.batchMillis", 1000);
+    private static final int maxBatch = Integer.getInteger("alerts.maxBatch", 100);
+    private static final long timeoutMillis = Long.getLong("alerts.webhookTimeoutMillis", 2000);
+    private static final int maxWebhooks = Integer.getInteger("alerts.maxWebhooks", 16);
+
+    private static final class Hook {
+        final int id;
+        final URI url;
+        long after;
+        long delivered;
+        long failures;
+        String lastError;
+
+        Hook(int id, URI url, long after) {
+            this.id = id;
+            this.url = url;
+            this.after = after;
+        }
+    }
+
+    private static final Map<Integer, Hook> hooks = new TreeMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(timeoutMillis))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    private Webhooks() {
+    }
+
+    static void start() {
+        AlertEngine.scheduler().scheduleWithFixedDelay(Webhooks::deliverAll, batchMillis, batchMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Returns the new webhook's id. It receives alerts raised from now on.
+    public static synchronized int register(String url) {
+        URI uri = validate(url);
+        if (hooks.size() >= maxWebhooks) {
+            throw new IllegalArgumentException("At most " + maxWebhooks + " webhooks can be registered");
+        }
+        int id = nextId.incrementAndGet();
+        hooks.put(id, new Hook(id, uri, AlertEngine.log().latestSequence()));
+        return id;
+    }
+
+    public static synchronized boolean remove(int id) {
+        return hooks.remove(id) != null;
+    }
+
+    static synchronized int count() {
+        return hooks.size();
+    }
+
+    private static URI validate(String url) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException | NullPointerException e) {
+            throw new IllegalArgumentException("url must be a valid http URL");
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())
+                || uri.getHost() == null) {
+            throw new IllegalArgumentException("url must be a valid http URL");
+        }
+        if (!isLoopbackLiteral(uri.getHost())) {
+            throw new IllegalArgumentException("Webhooks must point at this host (localhost, 127.x.x.x or [::1])");
+        }
+        return uri;
+    }
+
+    // Only names that can't be resolved to anything else are accepted. Checking what a DNS name resolves to would
+    // not do: the HTTP client resolves it again for every POST, and the answer can change in between.
+    private static boolean isLoopbackLiteral(String host) {
+        if (host.equalsIgnoreCase("localhost")) return true;
+        // A dotted quad or a bracketed IPv6 address is parsed, never looked up
+        if (!host.matches("\\d{1,3}(\\.\\d{1,3}){3}") && !(host.startsWith("[") && host.endsWith("]"))) return false;
+        try {
+            return InetAddress.getByName(host).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static void deliverAll() {
+        Hook[] current;
+        synchronized (Webhooks.class) {
+            current = hooks.values().toArray(new Hook[0]);
+        }
+        for (Hook hook : current) {
+            try {
+                deliver(hook);
+            } catch (RuntimeException e) {
+                // One broken webhook must not stop the schedule for the others
+                recordFailure(hook, e.toString());
+            }
+        }
+    }
+
+    private static void deliver(Hook hook) {
+        ChangeLog.Batch batch = AlertEngine.log().since(hook.after, maxBatch);
+        if (batch.events.isEmpty() && !batch.gap) return;
+
+        StringWriter body = new StringWriter();
+        try {
+            JsonWriter json = new JsonWriter(body).beginObject().name("alerts").beginArray();
+            for (ChangeLog.Event event : batch.events) {
+                json.rawValue(event.json);
+            }
+            json.endArray().name("gap").value(batch.gap).endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(hook.url)
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 != 2) {
+                recordFailure(hook, "HTTP " + response.statusCode());
+                return;
+            }
+        } catch (IOException e) {
+            recordFailure(hook, e.toString());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (Webhooks.class) {
+            hook.after = batch.nextAfter;
+            hook.delivered += batch.events.size();
+            hook.lastError = null;
+        }
+    }
+
+    private static synchronized void recordFailure(Hook hook, String error) {
+        hook.failures++;
+        hook.lastError = error;
+    }
+
+    public static synchronized JSONArray list() {
+        JSONArray list = new JSONArray();
+        for (Hook hook : hooks.values()) {
+            JSONObject entry = new JSONObject();
+            entry.put("id", hook.id);
+            entry.put("url", hook.url.toString());
+            entry.put("after", hook.after);
+            entry.put("delivered", hook.delivered);
+            entry.put("failures", hook.failures);
+            entry.put("last_error", hook.lastError);
+            list.add(entry);
+        }
+        return list;
+    }
+}
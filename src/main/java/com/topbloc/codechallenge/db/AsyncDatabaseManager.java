@@ -0,0 +1,169 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// CompletableFuture facade over DatabaseManager. Each call runs on a dedicated DB executor, so a route can start
+// several independent lookups at once and compose them. The executor is either:
+// - a pool of db.async.threads platform threads (default: one per reader connection plus one for the writer), with
+//   at most db.async.queueCapacity calls waiting, or
+// - one virtual thread per call when db.async.virtualThreads is set and the JDK has them (21+).
+// Either way the connection pool still caps how many calls touch SQLite at once. Work the executor cannot take, and
+// a saturated pool, fail the future with a DatabaseBusyException.
+public final class AsyncDatabaseManager {
+    private static final int threads = Integer.getInteger("db.async.threads",
+            Integer.getInteger("db.pool.readers", Math.max(2, Runtime.getRuntime().availableProcessors())) + 1);
+    private static final int queueCapacity = Integer.getInteger("db.async.queueCapacity", 1024);
+    private static final ExecutorService executor = createExecutor();
+
+    private AsyncDatabaseManager() {
+    }
+
+    private static ExecutorService createExecutor() {
+        if (Boolean.getBoolean("db.async.virtualThreads")) {
+            // Looked up reflectively so the project still builds for Java 11
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                System.out.println("DB executor: virtual threads");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads are not available on this JDK; using a platform DB executor");
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "db-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static <T> CompletableFuture<T> supply(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new DatabaseBusyException("DB executor queue is full"));
+        }
+    }
+
+    public static JSONObject getExecutorStats() {
+        JSONObject stats = new JSONObject();
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            stats.put("type", "platform");
+            stats.put("threads", pool.getMaximumPoolSize());
+            stats.put("active", pool.getActiveCount());
+            stats.put("queued", pool.getQueue().size());
+            stats.put("queue_capacity", queueCapacity);
+            stats.put("completed", pool.getCompletedTaskCount());
+        } else {
+            stats.put("type", "virtual");
+        }
+        return stats;
+    }
+
+    // Reads
+    public static CompletableFuture<ItemRecord> getItemRecord(int itemId) {
+        return supply(() -> DatabaseManager.getItemRecord(itemId));
+    }
+
+    public static CompletableFuture<InventoryRecord> getInventoryRecord(int itemId) {
+        return supply(() -> DatabaseManager.getInventoryRecord(itemId));
+    }
+
+    public static CompletableFuture<JSONArray> getItems() {
+        return supply(DatabaseManager::getItems);
+    }
+
+    public static CompletableFuture<JSONArray> getOutOfStockItems() {
+        return supply(DatabaseManager::getOutOfStockItems);
+    }
+
+    public static CompletableFuture<JSONArray> getOverStock() {
+        return supply(DatabaseManager::getOverStock);
+    }
+
+    public static CompletableFuture<JSONArray> getLowStock() {
+        return supply(DatabaseManager::getLowStock);
+    }
+
+    public static CompletableFuture<JSONArray> getDistributors() {
+        return supply(DatabaseManager::getDistributors);
+    }
+
+    public static CompletableFuture<JSONArray> getItemsByDistributor(int distributorId) {
+        return supply(() -> DatabaseManager.getItemsByDistributor(distributorId));
+    }
+
+    public static CompletableFuture<JSONArray> getDistributorsByItemId(int itemId) {
+        return supply(() -> DatabaseManager.getDistributorsByItemId(itemId));
+    }
+
+    public static CompletableFuture<JSONObject> getCheapestRestockOption(int itemId, int quantity) {
+        return supply(() -> DatabaseManager.getCheapestRestockOption(itemId, quantity));
+    }
+
+    public static CompletableFuture<JSONObject> getCheapestSplitRestock(int itemId, int quantity,
+                                                                        Map<Integer, Integer> available) {
+        return supply(() -> DatabaseManager.getCheapestSplitRestock(itemId, quantity, available));
+    }
+
+    public static CompletableFuture<JSONObject> getRestockPlan(Map<Integer, Integer> quantities) {
+        return supply(() -> DatabaseManager.getRestockPlan(quantities));
+    }
+
+    public static CompletableFuture<JSONObject> getLowStockRestockPlan() {
+        return supply(DatabaseManager::getLowStockRestockPlan);
+    }
+
+    // Writes
+    public static CompletableFuture<Boolean> addItem(String name) {
+        return supply(() -> DatabaseManager.addItem(name));
+    }
+
+    public static CompletableFuture<Boolean> addToInventory(int itemId, int stock, int capacity) {
+        return supply(() -> DatabaseManager.addToInventory(itemId, stock, capacity));
+    }
+
+    // Already asynchronous through the group-commit queue, so there is no executor hop
+    public static CompletableFuture<Boolean> updateInventoryItem(int itemId, Integer stock, Integer capacity) {
+        return DatabaseManager.updateInventoryItemAsync(itemId, stock, capacity);
+    }
+
+    public static CompletableFuture<String> addDistributor(String name) {
+        return supply(() -> DatabaseManager.addDistributor(name));
+    }
+
+    public static CompletableFuture<String> addItemToDistributorCatalog(int distributorId, int itemId, float cost) {
+        return supply(() -> DatabaseManager.addItemToDistributorCatalog(distributorId, itemId, cost));
+    }
+
+    public static CompletableFuture<String> updateDistributorCatalogPrice(int distributorId, int itemId, float cost) {
+        return supply(() -> DatabaseManager.updateDistributorCatalogPrice(distributorId, itemId, cost));
+    }
+
+    public static CompletableFuture<JSONObject> deleteItemFromInventory(int itemId) {
+        return supply(() -> DatabaseManager.deleteItemFromInventory(itemId));
+    }
+
+    public static CompletableFuture<JSONObject> deleteDistributorById(int distributorId) {
+        return supply(() -> DatabaseManager.deleteDistributorById(distributorId));
+    }
+}
@@ -0,0 +1,92 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Rows of a bulk request, read either from a JSON array or from newline-delimited JSON. NDJSON is parsed one line at
+// a time as the rows are consumed, so a large upload never has to be held in memory. A row that can't be parsed is
+// still handed out (with its error) so it can be reported next to the rows that were applied.
+public abstract class BulkRows implements Iterator<BulkRows.Row> {
+    public static final class Row {
+        public final int index;
+        public final JSONObject value;
+        public final String error;
+
+        Row(int index, JSONObject value, String error) {
+            this.index = index;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    public static BulkRows fromJsonArray(String body) throws ParseException {
+        Object parsed = new JSONParser().parse(body);
+        if (!(parsed instanceof JSONArray)) {
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "expected a JSON array");
+        }
+        Iterator<?> values = ((JSONArray) parsed).iterator();
+        return new BulkRows() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                Object value = values.next();
+                int rowIndex = index++;
+                return value instanceof JSONObject
+                        ? new Row(rowIndex, (JSONObject) value, null)
+                        : new Row(rowIndex, null, "row is not a JSON object");
+            }
+        };
+    }
+
+    public static BulkRows fromNdjson(BufferedReader reader) {
+        return new BulkRows() {
+            private final JSONParser parser = new JSONParser();
+            private String line;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (line == null) {
+                        line = reader.readLine();
+                        if (line == null) return false;
+                        if (line.trim().isEmpty()) line = null;
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String current = line;
+                line = null;
+                int rowIndex = index++;
+                try {
+                    Object value = parser.parse(current);
+                    return value instanceof JSONObject
+                            ? new Row(rowIndex, (JSONObject) value, null)
+                            : new Row(rowIndex, null, "row is not a JSON object");
+                } catch (ParseException e) {
+                    return new Row(rowIndex, null, "invalid JSON: " + e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Applies bulk rows in chunked transactions using JDBC batches, so a large load costs one commit per chunk instead
+// of one per row. A failing row never aborts the load: SQLite's driver doesn't report which row of a batch failed,
+// so the chunk is rolled back to a savepoint and replayed row by row to pin the failure down.
+//
+// Each chunk is read from the input before the writer is taken, and the writer is held for that chunk only, so a
+// slow upload never holds up other writes while its next rows are still on the wire.
+class BulkWriter {
+    private static final int batchSize = Integer.getInteger("db.bulk.batchSize", 500);
+
+    interface Binder {
+        // Binds one row's parameters; throws IllegalArgumentException for rows that are invalid on their face
+        void bind(PreparedStatement stmt, JSONObject row) throws SQLException;
+    }
+
+    // One statement applied to every row; an upsert is a single INSERT ... ON CONFLICT statement
+    static final class Plan {
+        final String sql;
+        final Binder binder;
+
+        Plan(String sql, Binder binder) {
+            this.sql = sql;
+            this.binder = binder;
+        }
+    }
+
+    // Takes the writer, runs one chunk's transaction on it and brings whatever reads the table up to date
+    interface ChunkRunner {
+        void run(ChunkWork work) throws SQLException;
+    }
+
+    interface ChunkWork {
+        void apply(ConnectionPool.Lease lease) throws SQLException;
+    }
+
+    private final Plan plan;
+    private final ChunkRunner runner;
+    private final JSONArray errors = new JSONArray();
+    private int rows;
+    private int applied;
+
+    BulkWriter(Plan plan, ChunkRunner runner) {
+        this.plan = plan;
+        this.runner = runner;
+    }
+
+    JSONObject run(BulkRows input) throws SQLException {
+        List<BulkRows.Row> chunk = new ArrayList<>(batchSize);
+        while (input.hasNext()) {
+            BulkRows.Row row = input.next();
+            rows++;
+            if (row.error != null) {
+                fail(row, row.error);
+                continue;
+            }
+            chunk.add(row);
+            if (chunk.size() == batchSize) {
+                commitChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) commitChunk(chunk);
+
+        // Rows can fail before reaching the database or in a chunk's replay, so report them back in input order
+        errors.sort(Comparator.comparingInt(error -> (int) ((JSONObject) error).get("row")));
+
+        JSONObject result = new JSONObject();
+        result.put("rows", rows);
+        result.put("applied", applied);
+        result.put("failed", errors.size());
+        result.put("errors", errors);
+        return result;
+    }
+
+    private void commitChunk(List<BulkRows.Row> chunk) throws SQLException {
+        runner.run(lease -> {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                applyStatement(lease, chunk);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                // Only the chunk in flight is lost; earlier chunks are already committed
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        });
+    }
+
+    // Runs the statement for every row as one batch
+    private void applyStatement(ConnectionPool.Lease lease, List<BulkRows.Row> chunk) throws SQLException {
+        Connection conn = lease.connection();
+        PreparedStatement stmt = lease.prepare(plan.sql);
+        List<BulkRows.Row> batched = new ArrayList<>(chunk.size());
+        for (BulkRows.Row row : chunk) {
+            try {
+                plan.binder.bind(stmt, row.value);
+                stmt.addBatch();
+                batched.add(row);
+            } catch (IllegalArgumentException | ClassCastException e) {
+                fail(row, e.getMessage());
+            }
+        }
+        if (batched.isEmpty()) return;
+
+        Savepoint savepoint = conn.setSavepoint();
+        try {
+            int[] counts = stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                record(batched.get(i), counts[i]);
+            }
+            conn.releaseSavepoint(savepoint);
+        } catch (SQLException batchFailure) {
+            stmt.clearBatch();
+            conn.rollback(savepoint);
+            for (BulkRows.Row row : batched) {
+                try {
+                    stmt.clearParameters();
+                    plan.binder.bind(stmt, row.value);
+                    record(row, stmt.executeUpdate());
+                } catch (SQLException e) {
+                    fail(row, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void record(BulkRows.Row row, int count) {
+        if (count > 0) {
+            applied++;
+        } else {
+            fail(row, "no rows changed");
+        }
+    }
+
+    private void fail(BulkRows.Row row, String message) {
+        JSONObject error = new JSONObject();
+        error.put("row", row.index);
+        error.put("error", message);
+        errors.add(error);
+    }
+}
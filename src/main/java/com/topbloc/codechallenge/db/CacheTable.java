@@ -0,0 +1,167 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+// Bounded, id-keyed snapshot of one table, used as a read-through cache in front of SQLite. Entries are evicted in
+// LRU order once maxEntries is exceeded. When the whole table has been loaded (and fits) the table is "complete",
+// which lets list endpoints be answered from memory and lets a lookup miss be answered as "does not exist".
+//
+// Every write bumps the generation; a loader captures the generation before it queries and its result is discarded
+// if a write happened in between, so a slow read can never reinstall a row that a write already replaced.
+class CacheTable<V> {
+    private final String name;
+    private final int maxEntries;
+    private final ToIntFunction<V> idOf;
+    private final LinkedHashMap<Integer, V> entries;
+    private boolean complete;
+    private boolean oversized;
+    private List<V> sortedView;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    CacheTable(String name, int maxEntries, ToIntFunction<V> idOf) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.idOf = idOf;
+        this.entries = new LinkedHashMap<Integer, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+                if (size() <= CacheTable.this.maxEntries) return false;
+                evictions++;
+                complete = false;
+                sortedView = null;
+                return true;
+            }
+        };
+    }
+
+    // Result of a lookup: the cached value, or whether the id is known not to exist
+    static final class Lookup<V> {
+        final V value;
+        final boolean known;
+
+        private Lookup(V value, boolean known) {
+            this.value = value;
+            this.known = known;
+        }
+    }
+
+    synchronized Lookup<V> lookup(int id) {
+        V value = entries.get(id);
+        if (value != null || complete) {
+            hits++;
+            return new Lookup<>(value, true);
+        }
+        misses++;
+        return new Lookup<>(null, false);
+    }
+
+    int maxEntries() {
+        return maxEntries;
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    // Installs a single row read by a loader that started at the given generation
+    synchronized void load(long loadedAt, int id, V value) {
+        if (loadedAt == generation && value != null) {
+            entries.put(id, value);
+        }
+    }
+
+    // The whole table ordered by id, or null if it is not fully cached
+    synchronized List<V> all() {
+        if (!complete) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (sortedView == null) {
+            List<V> view = new ArrayList<>(entries.values());
+            view.sort(Comparator.comparingInt(idOf));
+            sortedView = view;
+        }
+        return sortedView;
+    }
+
+    // Whether a full load was attempted and the table did not fit; list reads should go straight to SQL then
+    synchronized boolean isOversized() {
+        return oversized;
+    }
+
+    // Installs a full table read (ordered by id) by a loader that started at the given generation
+    synchronized void loadAll(long loadedAt, List<V> rows) {
+        if (loadedAt != generation) return;
+        if (rows.size() > maxEntries) {
+            oversized = true;
+            return;
+        }
+        entries.clear();
+        for (V row : rows) {
+            entries.put(idOf.applyAsInt(row), row);
+        }
+        complete = true;
+        sortedView = rows;
+    }
+
+    // Write path: the row now has exactly this value
+    synchronized void put(V value) {
+        generation++;
+        entries.put(idOf.applyAsInt(value), value);
+        sortedView = null;
+    }
+
+    // Write path: the row no longer exists
+    synchronized void remove(int id) {
+        generation++;
+        entries.remove(id);
+        sortedView = null;
+    }
+
+    // Write path: the row changed in a way we can't reproduce locally, so forget it (and the full table)
+    synchronized void invalidate(int id) {
+        generation++;
+        entries.remove(id);
+        complete = false;
+        sortedView = null;
+    }
+
+    // Write path: rows were added whose ids we don't know
+    synchronized void invalidateAll() {
+        generation++;
+        complete = false;
+        sortedView = null;
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+        complete = false;
+        oversized = false;
+        sortedView = null;
+    }
+
+    synchronized JSONObject stats() {
+        JSONObject stats = new JSONObject();
+        stats.put("table", name);
+        stats.put("entries", entries.size());
+        stats.put("max_entries", maxEntries);
+        stats.put("complete", complete);
+        stats.put("oversized", oversized);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+}
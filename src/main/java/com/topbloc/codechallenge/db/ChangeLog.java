@@ -0,0 +1,151 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Change data capture: every committed write publishes an event into a bounded in-memory ring with a sequence number,
+// so consumers can follow the tables incrementally instead of re-fetching them. A consumer remembers the last
+// sequence it saw and asks for everything after it. Other event sources (see AlertEngine) keep their own ChangeLog and
+// append whatever fields their events have.
+//
+// Only the last cdc.capacity events are kept. A consumer that falls further behind than that, or that resumes from a
+// sequence of an earlier process, gets a gap flag and has to re-fetch the tables before following again. Events are
+// rendered to JSON once, when published, and shared by every reader.
+//
+// Sequences are scoped to the process: they count up from the start time in milliseconds times 1024, so a later
+// process's range starts above anything an earlier one could have reached (short of 1024 events per millisecond for
+// its whole life) and an old cursor always falls outside the range. The numbers stay below 2^53, so JavaScript
+// clients read them exactly. A cursor of 0 means the start of this process's log.
+public final class ChangeLog {
+    // Writes fields of an event, or the value of its data field
+    public interface Payload {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    public static final class Event {
+        public final long sequence;
+        public final String json;
+
+        Event(long sequence, String json) {
+            this.sequence = sequence;
+            this.json = json;
+        }
+    }
+
+    // Events after a given sequence; gap means some events in between are no longer in the log
+    public static final class Batch {
+        public final List<Event> events;
+        public final boolean gap;
+        public final long nextAfter;
+
+        Batch(List<Event> events, boolean gap, long nextAfter) {
+            this.events = events;
+            this.gap = gap;
+            this.nextAfter = nextAfter;
+        }
+    }
+
+    private final Event[] ring;
+    // Sequence of the most recent event; the first event is base + 1
+    private final long base = System.currentTimeMillis() << 10;
+    private long latest = base;
+    private long gaps;
+
+    public ChangeLog(int capacity) {
+        ring = new Event[Math.max(1, capacity)];
+    }
+
+    void publish(String table, String op, String keyName, long key, Payload data) {
+        append(json -> {
+            json.name("table").value(table).name("op").value(op);
+            if (keyName != null) json.name(keyName).value(key);
+            if (data != null) {
+                json.name("data");
+                data.write(json);
+            }
+        });
+    }
+
+    // Adds an event made of seq, time and the fields written by the payload
+    public void append(Payload fields) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            long sequence = latest + 1;
+            StringWriter buffer = new StringWriter(128);
+            try {
+                JsonWriter json = new JsonWriter(buffer).beginObject()
+                        .name("seq").value(sequence)
+                        .name("time").value(now);
+                fields.write(json);
+                json.endObject();
+            } catch (IOException e) {
+                // A StringWriter does not throw
+                throw new IllegalStateException(e);
+            }
+            ring[(int) (sequence % ring.length)] = new Event(sequence, buffer.toString());
+            latest = sequence;
+            notifyAll();
+        }
+    }
+
+    // A table changed in ways the log does not describe row by row, such as a bulk load or a reset
+    void publishReload(String table) {
+        publish(table, "reload", null, 0, null);
+    }
+
+    public synchronized long latestSequence() {
+        return latest;
+    }
+
+    public synchronized long oldestSequence() {
+        return Math.max(base + 1, latest - ring.length + 1);
+    }
+
+    public synchronized Batch since(long after, int max) {
+        if (after == 0) after = base;
+        long oldest = oldestSequence();
+        boolean gap = false;
+        // Outside this process's range means the cursor is from another process; behind the ring means events
+        // were dropped
+        if (after > latest || after < oldest - 1) {
+            gap = true;
+            after = oldest - 1;
+        }
+        if (gap) gaps++;
+        if (after >= latest || max <= 0) return new Batch(Collections.emptyList(), gap, after);
+
+        long last = Math.min(latest, after + max);
+        List<Event> events = new ArrayList<>((int) (last - after));
+        for (long seq = after + 1; seq <= last; seq++) {
+            events.add(ring[(int) (seq % ring.length)]);
+        }
+        return new Batch(events, gap, last);
+    }
+
+    // Like since, but waits up to timeoutMillis for an event after the given sequence when there is none yet
+    public synchronized Batch await(long after, int max, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (after == 0) after = base;
+        while (after == latest) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) break;
+            wait(remaining);
+        }
+        return since(after, max);
+    }
+
+    public synchronized JSONObject stats() {
+        JSONObject stats = new JSONObject();
+        stats.put("capacity", ring.length);
+        stats.put("latest_sequence", latest);
+        stats.put("oldest_sequence", latest > base ? oldestSequence() : 0);
+        stats.put("gaps", gaps);
+        return stats;
+    }
+}
@@ -0,0 +1,290 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONObject;
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded pool of SQLite read connections plus a single dedicated writer. The database is opened in WAL mode so
+// readers never block on the writer and the writer never waits for readers; SQLite only allows one writer at a
+// time anyway, so writes are serialized on the writer lock instead of fighting over the file lock.
+//
+// The pool is also the database's concurrency limit. At most db.pool.maxWaiters callers may be queued for a reader
+// (and as many for the writer); beyond that, and on an acquire timeout, callers get a DatabaseBusyException at once
+// instead of piling up behind a saturated database.
+public class ConnectionPool implements AutoCloseable {
+    private static final int cacheSizeKib = Integer.getInteger("db.cacheSizeKib", 16 * 1024);
+    private static final long mmapSizeBytes = Long.getLong("db.mmapSizeBytes", 256L * 1024 * 1024);
+    private static final int busyTimeoutMillis = Integer.getInteger("db.busyTimeoutMillis", 5000);
+    private static final int statementCacheSize = Integer.getInteger("db.statementCacheSize", 64);
+    private static final int maxWaiters = Integer.getInteger("db.pool.maxWaiters", 256);
+
+    private final int readerCount;
+    private final long acquireTimeoutMillis;
+    private final List<Connection> readers = new ArrayList<>();
+    private final BlockingQueue<Connection> idleReaders;
+    private final Connection writer;
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+    private volatile boolean closed;
+    // Cleared by whichever of close() and the last writer lease gets to close the writer first
+    private final AtomicBoolean writerOpen = new AtomicBoolean(true);
+
+    private final AtomicInteger activeReaders = new AtomicInteger();
+    private final AtomicLong readerAcquisitions = new AtomicLong();
+    private final AtomicLong readerWaitNanos = new AtomicLong();
+    private final AtomicLong writerAcquisitions = new AtomicLong();
+    private final AtomicLong writerWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicInteger readerWaiters = new AtomicInteger();
+    private final AtomicInteger writerWaiters = new AtomicInteger();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public ConnectionPool(String connectionString, int readerCount, long acquireTimeoutMillis) throws SQLException {
+        this.readerCount = readerCount;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleReaders = new ArrayBlockingQueue<>(readerCount);
+
+        // The writer is opened first so the database file exists (and is switched to WAL) before any reader attaches
+        this.writer = open(connectionString, true);
+        statementCaches.put(writer, new StatementCache(writer, statementCacheSize));
+        try {
+            for (int i = 0; i < readerCount; i++) {
+                Connection reader = open(connectionString, false);
+                readers.add(reader);
+                statementCaches.put(reader, new StatementCache(reader, statementCacheSize));
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            closeQuietly(writer);
+            readers.forEach(this::closeQuietly);
+            throw e;
+        }
+    }
+
+    private static Connection open(String connectionString, boolean isWriter) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        if (isWriter) {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        }
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        config.setCacheSize(-cacheSizeKib);
+        config.setBusyTimeout(busyTimeoutMillis);
+
+        Connection connection = config.createConnection(connectionString);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA mmap_size = " + mmapSizeBytes);
+            if (!isWriter) {
+                stmt.execute("PRAGMA query_only = ON");
+            }
+        }
+        return connection;
+    }
+
+    public Lease reader() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = closed ? null : idleReaders.poll();
+        if (connection == null && !closed) {
+            enterQueue(readerWaiters, "read");
+            try {
+                connection = idleReaders.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a read connection");
+            } finally {
+                readerWaiters.decrementAndGet();
+            }
+        }
+        if (connection == null) {
+            if (closed) throw new SQLException("Connection pool is closed");
+            timeouts.incrementAndGet();
+            throw new DatabaseBusyException("Timed out waiting for a read connection after " + acquireTimeoutMillis + "ms");
+        }
+        recordWait(readerWaitNanos, start);
+        readerAcquisitions.incrementAndGet();
+        activeReaders.incrementAndGet();
+        return new Lease(connection, false);
+    }
+
+    public Lease writer() throws SQLException {
+        long start = System.nanoTime();
+        boolean locked = !closed && writerLock.tryLock();
+        if (!locked && !closed) {
+            enterQueue(writerWaiters, "write");
+            try {
+                locked = writerLock.tryLock(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the write connection");
+            } finally {
+                writerWaiters.decrementAndGet();
+            }
+        }
+        if (!locked) {
+            if (closed) throw new SQLException("Connection pool is closed");
+            timeouts.incrementAndGet();
+            throw new DatabaseBusyException("Timed out waiting for the write connection after " + acquireTimeoutMillis + "ms");
+        }
+        if (closed) {
+            writerLock.unlock();
+            throw new SQLException("Connection pool is closed");
+        }
+        recordWait(writerWaitNanos, start);
+        writerAcquisitions.incrementAndGet();
+        return new Lease(writer, true);
+    }
+
+    // Joins the queue for a connection, or fails at once when the queue is already full
+    private void enterQueue(AtomicInteger waiters, String kind) {
+        if (waiters.incrementAndGet() > maxWaiters) {
+            waiters.decrementAndGet();
+            rejections.incrementAndGet();
+            throw new DatabaseBusyException("Too many callers waiting for a " + kind + " connection");
+        }
+    }
+
+    private void recordWait(AtomicLong total, long start) {
+        long waited = System.nanoTime() - start;
+        total.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+    }
+
+    private void release(Connection connection, boolean isWriter) {
+        if (isWriter) {
+            if (closed) closeWriter();
+            writerLock.unlock();
+            return;
+        }
+        activeReaders.decrementAndGet();
+        if (closed) {
+            closeQuietly(connection);
+        } else {
+            idleReaders.offer(connection);
+        }
+    }
+
+    // Stops handing out connections, waits (up to the acquire timeout) for outstanding leases to come back and
+    // then closes everything. Connections still leased after the wait, the writer included, are closed when their
+    // lease is released, never under the caller holding them.
+    @Override
+    public void close() {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        int drained = 0;
+        try {
+            while (drained < readerCount) {
+                long remaining = deadline - System.nanoTime();
+                Connection reader = idleReaders.poll(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                if (reader == null) break;
+                closeQuietly(reader);
+                drained++;
+            }
+            boolean locked = writerLock.tryLock(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            // The lock is reentrant, so a caller closing the pool from inside its own writer lease gets it too
+            boolean leased = !locked || writerLock.getHoldCount() > 1;
+            if (!leased) closeWriter();
+            if (locked) writerLock.unlock();
+            if (leased) System.out.println("Connection pool closed with the writer still leased");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (writerLock.tryLock()) {
+                if (writerLock.getHoldCount() == 1) closeWriter();
+                writerLock.unlock();
+            }
+        }
+        if (drained < readerCount) {
+            System.out.println("Connection pool closed with " + (readerCount - drained) + " reader(s) still leased");
+        }
+    }
+
+    // Only with the writer lock held
+    private void closeWriter() {
+        if (writerOpen.compareAndSet(true, false)) closeQuietly(writer);
+    }
+
+    private void closeQuietly(Connection connection) {
+        statementCaches.get(connection).close();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public JSONObject stats() {
+        long readerCount = readerAcquisitions.get();
+        long writerCount = writerAcquisitions.get();
+        JSONObject stats = new JSONObject();
+        stats.put("readers", this.readerCount);
+        stats.put("active_readers", activeReaders.get());
+        stats.put("idle_readers", idleReaders.size());
+        stats.put("writer_busy", writerLock.isLocked());
+        stats.put("writer_queue", writerLock.getQueueLength());
+        stats.put("reader_acquisitions", readerCount);
+        stats.put("writer_acquisitions", writerCount);
+        stats.put("avg_reader_wait_ms", readerCount == 0 ? 0.0 : readerWaitNanos.get() / 1e6 / readerCount);
+        stats.put("avg_writer_wait_ms", writerCount == 0 ? 0.0 : writerWaitNanos.get() / 1e6 / writerCount);
+        stats.put("max_wait_ms", maxWaitNanos.get() / 1e6);
+        stats.put("timeouts", timeouts.get());
+        stats.put("reader_waiters", readerWaiters.get());
+        stats.put("writer_waiters", writerWaiters.get());
+        stats.put("max_waiters", maxWaiters);
+        stats.put("rejections", rejections.get());
+        long hits = 0, misses = 0, evictions = 0, cached = 0;
+        for (StatementCache cache : statementCaches.values()) {
+            hits += cache.hits();
+            misses += cache.misses();
+            evictions += cache.evictions();
+            cached += cache.size();
+        }
+        stats.put("statement_cache_hits", hits);
+        stats.put("statement_cache_misses", misses);
+        stats.put("statement_cache_evictions", evictions);
+        stats.put("statements_cached", cached);
+        stats.put("closed", closed);
+        return stats;
+    }
+
+    // A borrowed connection; closing the lease hands the connection back to the pool rather than closing it
+    public class Lease implements AutoCloseable {
+        private final Connection connection;
+        private final boolean isWriter;
+        private boolean released;
+
+        private Lease(Connection connection, boolean isWriter) {
+            this.connection = connection;
+            this.isWriter = isWriter;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        // Prepared statement from this connection's cache; do not close it, close the ResultSet instead
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return statementCaches.get(connection).prepare(sql);
+        }
+
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+            release(connection, isWriter);
+        }
+    }
+}
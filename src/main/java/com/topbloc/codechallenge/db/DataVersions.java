@@ -0,0 +1,56 @@
+package com.topbloc.codechallenge.db;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A version counter and last-modified time per table, bumped after every committed write. A route's ETag is built
+// from the versions of the tables it reads, so a conditional GET can be answered without touching SQLite.
+//
+// Versions only live in memory, so each process starts a new epoch; tags from before a restart never match.
+// Bumps must happen after the commit: a tag computed early is then at worst too old, which only costs a full
+// response, never a stale 304.
+public final class DataVersions {
+    public enum Table { ITEMS, INVENTORY, DISTRIBUTORS, DISTRIBUTOR_PRICES }
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<Table, AtomicLong> versions = new EnumMap<>(Table.class);
+    private final Map<Table, AtomicLong> modified = new EnumMap<>(Table.class);
+
+    DataVersions() {
+        long now = System.currentTimeMillis();
+        for (Table table : Table.values()) {
+            versions.put(table, new AtomicLong());
+            modified.put(table, new AtomicLong(now));
+        }
+    }
+
+    void bump(Table... tables) {
+        long now = System.currentTimeMillis();
+        for (Table table : tables) {
+            versions.get(table).incrementAndGet();
+            modified.get(table).accumulateAndGet(now, Math::max);
+        }
+    }
+
+    void bumpAll() {
+        bump(Table.values());
+    }
+
+    // Strong ETag (quotes included) for a response built from these tables
+    public String etag(Table... tables) {
+        StringBuilder tag = new StringBuilder("\"").append(epoch);
+        for (Table table : tables) {
+            tag.append('-').append(Long.toString(versions.get(table).get(), 36));
+        }
+        return tag.append('"').toString();
+    }
+
+    public long lastModified(Table... tables) {
+        long latest = 0;
+        for (Table table : tables) {
+            latest = Math.max(latest, modified.get(table).get());
+        }
+        return latest;
+    }
+}
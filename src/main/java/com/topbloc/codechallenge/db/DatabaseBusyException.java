@@ -0,0 +1,9 @@
+package com.topbloc.codechallenge.db;
+
+// No connection could be had in time: too many callers were already waiting, or the wait timed out. Unchecked so it
+// passes through the SQLException handling in DatabaseManager and the route can answer 503 rather than 500.
+public class DatabaseBusyException extends RuntimeException {
+    public DatabaseBusyException(String message) {
+        super(message);
+    }
+}
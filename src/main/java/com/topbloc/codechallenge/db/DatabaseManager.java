@@ -1,49 +1,326 @@
 package com.topbloc.codechallenge.db;
 
+import com.topbloc.codechallenge.json.JsonWriter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class DatabaseManager {
     private static final String jdbcPrefix = "jdbc:sqlite:";
-    private static final String dbName = "challenge.db";
+    private static final String dbName = System.getProperty("db.path", "challenge.db");
+    private static final int readerPoolSize = Integer.getInteger("db.pool.readers",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final long acquireTimeoutMillis = Long.getLong("db.pool.acquireTimeoutMillis", 5000);
     private static String connectionString;
-    private static Connection conn;
+    private static volatile ConnectionPool pool;
+
+    // Read-through caches in front of the items and inventory tables, kept in step by the write methods below
+    private static final CacheTable<ItemRecord> itemCache =
+            new CacheTable<>("items", Integer.getInteger("cache.items.maxEntries", 10_000), item -> item.id);
+    private static final CacheTable<InventoryRecord> inventoryCache =
+            new CacheTable<>("inventory", Integer.getInteger("cache.inventory.maxEntries", 10_000), item -> item.id);
+    private static final StockIndex stockIndex =
+            new StockIndex(Double.parseDouble(System.getProperty("inventory.lowStockThreshold", "0.35")));
+    private static final PriceIndex priceIndex = new PriceIndex();
+    private static final DataVersions dataVersions = new DataVersions();
+    private static final ChangeLog changeLog = new ChangeLog(Integer.getInteger("cdc.capacity", 10_000));
+    private static final List<InventoryListener> inventoryListeners = new CopyOnWriteArrayList<>();
+    // Optional in-memory engine, see MemoryStore; null while reads and writes go straight to SQLite
+    private static final boolean inMemory = Boolean.getBoolean("engine.inMemory");
+    private static final long flushTimeoutMillis = Long.getLong("engine.flushTimeoutMillis", 30_000);
+    private static volatile MemoryStore memory;
+    private static final AtomicBoolean memoryReloadPending = new AtomicBoolean();
+    private static final InventoryWriteQueue inventoryWriteQueue = new InventoryWriteQueue(
+            DatabaseManager::applyInventoryUpdates,
+            Integer.getInteger("db.groupCommit.maxBatch", 256),
+            Long.getLong("db.groupCommit.maxDelayMicros", 0));
 
     static {
         File dbFile = new File(dbName);
         connectionString = jdbcPrefix + dbFile.getAbsolutePath();
     }
 
-    public static void connect() {
+    // Opens (or reopens) the connection pool. Any previous pool is drained and closed first.
+    public static synchronized void connect() {
+        open();
+        if (inMemory) loadMemory();
+    }
+
+    private static void open() {
+        flushMemory();
+        closePool();
         try {
-            Connection connection = DriverManager.getConnection(connectionString);
+            pool = new ConnectionPool(connectionString, readerPoolSize, acquireTimeoutMillis);
+            clearCaches();
+            dataVersions.bumpAll();
             System.out.println("Connection to SQLite has been established.");
-            conn = connection;
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            return;
         }
+        migrateSchema();
     }
-    // Schema function to reset the database if needed - do not change
-    public static void resetDatabase() {
-        try {
-            conn.close();
+
+    // Loads the in-memory engine from SQLite, or reloads it, and rebuilds the indexes from it. The indexes are then
+    // kept current by the engine's writes and never fall back to SQLite.
+    private static void loadMemory() {
+        MemoryStore store = memory;
+        if (store == null) {
+            store = new MemoryStore(DatabaseManager::writer, DatabaseManager::memoryDiverged);
+            MemoryStore created = store;
+            // Writes not yet persisted are lost if the process dies, but an orderly shutdown waits for them
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> created.flush(flushTimeoutMillis)));
+        }
+        synchronized (store) {
+            try (ConnectionPool.Lease lease = writer()) {
+                loadMemory(store, lease);
+                System.out.println("In-memory engine loaded: " + store.stats().toJSONString());
+            } catch (SQLException e) {
+                System.out.println("Error loading the in-memory engine: " + e.getMessage());
+            }
+        }
+    }
+
+    // The store must be held, and the writer with it
+    private static void loadMemory(MemoryStore store, ConnectionPool.Lease lease) throws SQLException {
+        List<InventoryRecord> inventory = readAllInventory(lease);
+        store.load(lease, inventory);
+        clearCaches();
+        stockIndex.load(inventory);
+        priceIndex.load(store.snapshot().allOffers());
+        memory = store;
+    }
+
+    static void flushMemory() {
+        MemoryStore store = memory;
+        if (store != null && !store.flush(flushTimeoutMillis)) {
+            System.out.println("In-memory engine: timed out waiting for writes to reach SQLite");
+        }
+    }
+
+    // Reloads the in-memory engine from SQLite, e.g. after a write SQLite rejected left the two copies apart
+    public static JSONObject reloadMemory() {
+        MemoryStore store = memory;
+        if (store == null) return getEngineStats();
+        synchronized (store) {
+            flushMemory();
+            loadMemory();
+            dataVersions.bumpAll();
+            changeLog.publishReload("*");
+            try (ConnectionPool.Lease lease = writer()) {
+                inventoryReloaded(lease);
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return getEngineStats();
+    }
+
+    // SQLite rejected a write the engine had already acknowledged, so the engine holds a row the database doesn't.
+    // SQLite is the durable copy, so the engine is reloaded from it, which drops the write. Until the reload is done
+    // the service reports itself not ready (see isMemoryDiverged).
+    private static void memoryDiverged() {
+        if (!memoryReloadPending.compareAndSet(false, true)) return;
+        System.out.println("In-memory engine: a write was rejected by SQLite, reloading from it");
+        Thread thread = new Thread(() -> {
+            try {
+                reloadMemory();
+            } finally {
+                memoryReloadPending.set(false);
+            }
+        }, "memory-reload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static boolean isMemoryDiverged() {
+        MemoryStore store = memory;
+        return store != null && store.isDiverged();
+    }
+
+    public static JSONObject getEngineStats() {
+        MemoryStore store = memory;
+        JSONObject stats = store != null ? store.stats() : new JSONObject();
+        stats.put("in_memory", store != null);
+        return stats;
+    }
+
+    // Evolves an existing database in place; see SchemaMigrator for the list of migrations
+    private static void migrateSchema() {
+        try (ConnectionPool.Lease lease = writer()) {
+            int applied = SchemaMigrator.migrate(lease.connection());
+            if (applied > 0) System.out.println("Applied " + applied + " schema migration(s)");
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            System.out.println("Error migrating schema: " + e.getMessage());
+        }
+    }
+
+    public static JSONObject getSchemaStatus() {
+        try (ConnectionPool.Lease lease = reader()) {
+            return SchemaMigrator.status(lease.connection());
+        } catch (SQLException e) {
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error;
         }
+    }
+
+    static File databaseFile() {
+        return new File(dbName);
+    }
+
+    public static boolean isConnected() {
+        return pool != null;
+    }
+
+    private static final String allItemsSql = "SELECT id, name FROM items ORDER BY id";
+    private static final String itemByIdSql = "SELECT id, name FROM items WHERE id = ?";
+
+    // Loads what the first requests would otherwise load on demand: the stock and price indexes, the item cache, and
+    // the hot statements on every read connection. Running the whole-table reads on each connection also pulls the
+    // tables into that connection's page cache. Returns the number of statements prepared.
+    public static int warmUp() throws SQLException {
+        loadedStockIndex();
+        loadedPriceIndex();
+        if (memory == null) {
+            long generation = itemCache.generation();
+            try (ConnectionPool.Lease lease = reader(); ResultSet set = lease.prepare(allItemsSql).executeQuery()) {
+                List<ItemRecord> rows = new ArrayList<>();
+                while (set.next() && rows.size() <= itemCache.maxEntries()) {
+                    rows.add(new ItemRecord(set.getInt(1), set.getString(2)));
+                }
+                itemCache.loadAll(generation, rows);
+            }
+        }
+
+        String[] scans = {"SELECT * FROM items", allItemsSql, "SELECT * FROM distributors",
+                inventorySelect + "ORDER BY inventory.item", offerSelect};
+        String[] lookups = {itemByIdSql, inventorySelect + "WHERE inventory.item = ?", itemsByDistributorSql,
+                distributorsByItemSql, itemDetailSelect};
+        // Every reader is held at once, so each lease is a different connection
+        List<ConnectionPool.Lease> leases = new ArrayList<>();
+        int prepared = 0;
+        try {
+            for (int i = 0; i < readerPoolSize; i++) {
+                leases.add(reader());
+            }
+            for (ConnectionPool.Lease lease : leases) {
+                for (String sql : scans) {
+                    try (ResultSet set = lease.prepare(sql).executeQuery()) {
+                        while (set.next()) {
+                            // Only the pages are wanted
+                        }
+                    }
+                    prepared++;
+                }
+                for (String sql : lookups) {
+                    lease.prepare(sql);
+                    prepared++;
+                }
+            }
+        } finally {
+            leases.forEach(ConnectionPool.Lease::close);
+        }
+        return prepared;
+    }
+
+    private static synchronized void closePool() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    static ConnectionPool.Lease reader() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null) throw new SQLException("Database is not connected");
+        return current.reader();
+    }
+
+    static ConnectionPool.Lease writer() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null) throw new SQLException("Database is not connected");
+        return current.writer();
+    }
+
+    private static void clearCaches() {
+        itemCache.clear();
+        inventoryCache.clear();
+        stockIndex.clear();
+        priceIndex.clear();
+    }
+
+    public static JSONObject getCacheStats() {
+        JSONArray tables = new JSONArray();
+        tables.add(itemCache.stats());
+        tables.add(inventoryCache.stats());
+        JSONObject stats = new JSONObject();
+        stats.put("tables", tables);
+        stats.put("stock_index", stockIndex.stats());
+        stats.put("price_index", priceIndex.stats());
+        return stats;
+    }
+
+    public static DataVersions dataVersions() {
+        return dataVersions;
+    }
+
+    public static ChangeLog changeLog() {
+        return changeLog;
+    }
+
+    public static JSONObject getPoolStats() {
+        ConnectionPool current = pool;
+        return current != null ? current.stats() : new JSONObject();
+    }
+
+    // Schema function to reset the database if needed - do not change
+    public static synchronized void resetDatabase() {
+        flushMemory();
+        closePool();
         File dbFile = new File(dbName);
         if (dbFile.exists()) {
             dbFile.delete();
         }
+        // WAL mode leaves side files next to the database; they must go with it
+        new File(dbName + "-wal").delete();
+        new File(dbName + "-shm").delete();
         connectionString = jdbcPrefix + dbFile.getAbsolutePath();
-        connect();
+        // The in-memory engine is loaded once the new database has its rows
+        open();
         applySchema();
         seedDatabase();
+        migrateSchema();
+        // Anything read while the new database was still being seeded must not survive
+        clearCaches();
+        if (inMemory) loadMemory();
+        dataVersions.bumpAll();
+        changeLog.publishReload("*");
+        try (ConnectionPool.Lease lease = writer()) {
+            inventoryReloaded(lease);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
     }
 
     // Schema function to reset the database if needed - do not change
@@ -69,12 +346,12 @@ public class DatabaseManager {
                 + "cost float NOT NULL\n" +
                 ");";
 
-        try {
+        try (ConnectionPool.Lease lease = writer(); Statement stmt = lease.connection().createStatement()) {
             System.out.println("Applying schema");
-            conn.createStatement().execute(itemsSql);
-            conn.createStatement().execute(inventorySql);
-            conn.createStatement().execute(distributorSql);
-            conn.createStatement().execute(distributorPricesSql);
+            stmt.execute(itemsSql);
+            stmt.execute(inventorySql);
+            stmt.execute(distributorSql);
+            stmt.execute(distributorPricesSql);
             System.out.println("Schema applied");
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -95,12 +372,12 @@ public class DatabaseManager {
                 "(2, 10, 0.25), (2, 11, 0.52), (2, 12, 0.07), (2, 13, 0.77), (2, 14, 0.93), (2, 15, 0.11), (2, 16, 0.42), (3, 10, 0.47), (3, 11, 0.84), (3, 12, 0.15), (3, 13, 0.07), (3, 14, 0.97),\n" +
                 "(3, 15, 0.39), (3, 16, 0.91), (3, 17, 0.85)";
 
-        try {
+        try (ConnectionPool.Lease lease = writer(); Statement stmt = lease.connection().createStatement()) {
             System.out.println("Seeding database");
-            conn.createStatement().execute(itemsSql);
-            conn.createStatement().execute(inventorySql);
-            conn.createStatement().execute(distributorSql);
-            conn.createStatement().execute(distributorPricesSql);
+            stmt.execute(itemsSql);
+            stmt.execute(inventorySql);
+            stmt.execute(distributorSql);
+            stmt.execute(distributorPricesSql);
             System.out.println("Database seeded");
         } catch (SQLException e) {
             e.printStackTrace();
@@ -138,39 +415,227 @@ public class DatabaseManager {
         return obj;
     }
 
-    // Controller functions - add your routes here. getItems is provided as an example
-    public static JSONArray getItems() {
-        String sql = "SELECT * FROM items";
+    // Inventory rows are keyed by item id; every inventory query selects these columns in this order
+    private static final String inventorySelect = "SELECT inventory.item AS id, items.name, inventory.stock, inventory.capacity " +
+            "FROM inventory " +
+            "JOIN items ON inventory.item = items.id ";
+
+    private static InventoryRecord readInventory(ResultSet rs) throws SQLException {
+        return new InventoryRecord(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4));
+    }
+
+    // Re-reads an inventory row through the writer right after it changed, so the cache and the stock index see
+    // exactly what was committed. Must be called while the writer lease is still held.
+    private static void inventoryChanged(ConnectionPool.Lease lease, int itemId) {
         try {
-            ResultSet set = conn.createStatement().executeQuery(sql);
-            return convertResultSetToJson(set);
+            PreparedStatement stmt = lease.prepare(inventorySelect + "WHERE inventory.item = ?");
+            stmt.setInt(1, itemId);
+            try (ResultSet set = stmt.executeQuery()) {
+                inventoryRowChanged(itemId, set.next() ? readInventory(set) : null);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error refreshing inventory item " + itemId + ": " + e.getMessage());
+            inventoryCache.invalidate(itemId);
+            stockIndex.clear();
+            dataVersions.bump(DataVersions.Table.INVENTORY);
+            // The row did change, but what it holds now is unknown; consumers re-read it
+            changeLog.publish("inventory", "invalidate", "item_id", itemId, null);
+        }
+    }
+
+    // Passes a committed inventory row, or null once it is gone, on to the cache, the stock index, the change log and
+    // the listeners. Called by whichever engine made the write, in commit order. The version is bumped only once the
+    // cache and the index hold the new row, so a request tagged with the new version can't read the old one.
+    private static void inventoryRowChanged(int itemId, InventoryRecord record) {
+        if (record != null) {
+            inventoryCache.put(record);
+            stockIndex.put(record);
+            dataVersions.bump(DataVersions.Table.INVENTORY);
+            changeLog.publish("inventory", "upsert", "item_id", itemId, record::writeTo);
+        } else {
+            inventoryCache.remove(itemId);
+            stockIndex.remove(itemId);
+            dataVersions.bump(DataVersions.Table.INVENTORY);
+            changeLog.publish("inventory", "delete", "item_id", itemId, null);
+        }
+        inventoryListeners.forEach(listener -> listener.inventoryChanged(itemId, record));
+    }
+
+    // Registers a listener for inventory changes and hands it the current rows first. Both happen under the writer,
+    // so no change can fall between the snapshot and the registration.
+    public static void addInventoryListener(InventoryListener listener) {
+        try (ConnectionPool.Lease lease = writer()) {
+            listener.inventoryLoaded(readAllInventory(lease));
+            inventoryListeners.add(listener);
+        } catch (SQLException e) {
+            System.out.println("Error registering inventory listener: " + e.getMessage());
+        }
+    }
+
+    // After the inventory was replaced wholesale, listeners are given all of it again; the writer must be held
+    private static void inventoryReloaded(ConnectionPool.Lease lease) {
+        if (inventoryListeners.isEmpty()) return;
+        try {
+            List<InventoryRecord> rows = readAllInventory(lease);
+            inventoryListeners.forEach(listener -> listener.inventoryLoaded(rows));
+        } catch (SQLException e) {
+            System.out.println("Error reloading inventory listeners: " + e.getMessage());
+        }
+    }
+
+    private static List<InventoryRecord> readAllInventory(ConnectionPool.Lease lease) throws SQLException {
+        try (ResultSet set = lease.prepare(inventorySelect + "ORDER BY inventory.item").executeQuery()) {
+            List<InventoryRecord> rows = new ArrayList<>();
+            while (set.next()) {
+                rows.add(readInventory(set));
+            }
+            return rows;
+        }
+    }
+
+    // The stock index covers the whole inventory, so it is built on first use. The scan runs under the writer so no
+    // inventory write can land between reading the table and the index going live.
+    private static StockIndex loadedStockIndex() throws SQLException {
+        if (stockIndex.isLoaded()) return stockIndex;
+        try (ConnectionPool.Lease lease = writer()) {
+            if (stockIndex.isLoaded()) return stockIndex;
+            stockIndex.load(readAllInventory(lease));
+        }
+        return stockIndex;
+    }
+
+    private static JSONArray getStockBucket(StockIndex.Bucket bucket) {
+        try {
+            JSONArray array = new JSONArray();
+            loadedStockIndex().bucket(bucket).forEach(item -> array.add(item.toJson()));
+            return array;
         } catch (SQLException e) {
             System.out.println(e.getMessage());
             return null;
         }
     }
 
-    public static JSONArray getOutOfStockItems() {
-        String sql = "SELECT inventory.id, items.name, inventory.stock, inventory.capacity " +
-                    "FROM inventory " +
-                    "JOIN items ON inventory.id = items.id " +
-                    "WHERE inventory.stock = 0";
+    // Streams a bucket straight from the index's records. Returns the number of rows written, or -1 if the index could
+    // not be loaded; an empty bucket never opens the stream.
+    private static int streamStockBucket(StockIndex.Bucket bucket, ResultSetJsonWriter.OutputOpener out)
+            throws IOException {
+        Collection<InventoryRecord> items;
         try {
-            ResultSet set = conn.createStatement().executeQuery(sql);
-            return convertResultSetToJson(set);
+            items = loadedStockIndex().bucket(bucket);
         } catch (SQLException e) {
             System.out.println(e.getMessage());
-            return null;
+            return -1;
+        }
+        if (items.isEmpty()) return 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out.open(), StandardCharsets.UTF_8));
+        JsonWriter json = new JsonWriter(writer).beginArray();
+        // The bucket is live, so count what was actually written
+        int rows = 0;
+        for (InventoryRecord item : items) {
+            item.writeTo(json);
+            rows++;
         }
+        json.endArray();
+        writer.flush();
+        return rows;
     }
 
-    public static JSONArray getOverStock() {
-        String sql = "SELECT inventory.id, items.name, inventory.stock, inventory.capacity " +
-                "FROM inventory " +
-                "JOIN items ON inventory.id = items.id " +
-                "WHERE inventory.stock > inventory.capacity";
+    // Every catalog offer with its distributor; the item id comes first so whole-table loads can group on it
+    private static final String offerSelect = "SELECT dp.item, d.id, d.name, dp.cost " +
+            "FROM distributor_prices dp " +
+            "JOIN distributors d ON dp.distributor = d.id ";
+
+    private static PriceIndex.Offer readOffer(ResultSet rs) throws SQLException {
+        return new PriceIndex.Offer(rs.getInt(2), rs.getString(3), rs.getFloat(4));
+    }
+
+    // Same idea as inventoryChanged: re-read an item's offers through the writer while it is still held
+    private static void pricesChanged(ConnectionPool.Lease lease, int itemId) {
         try {
-            ResultSet set = conn.createStatement().executeQuery(sql);
+            PreparedStatement stmt = lease.prepare(offerSelect + "WHERE dp.item = ?");
+            stmt.setInt(1, itemId);
+            try (ResultSet set = stmt.executeQuery()) {
+                List<PriceIndex.Offer> offers = new ArrayList<>();
+                while (set.next()) {
+                    offers.add(readOffer(set));
+                }
+                offersChanged(itemId, offers);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error refreshing prices for item " + itemId + ": " + e.getMessage());
+            priceIndex.clear();
+            dataVersions.bump(DataVersions.Table.DISTRIBUTOR_PRICES);
+            changeLog.publish("distributor_prices", "invalidate", "item_id", itemId, null);
+        }
+    }
+
+    // As in inventoryRowChanged, the version moves only after the index does
+    private static void offersChanged(int itemId, List<PriceIndex.Offer> offers) {
+        priceIndex.replace(itemId, offers);
+        dataVersions.bump(DataVersions.Table.DISTRIBUTOR_PRICES);
+        changeLog.publish("distributor_prices", "replace", "item_id", itemId, json -> writeOffers(json, offers));
+    }
+
+    // An item's offers as they appear in change events: the full list, which replaces whatever the consumer had
+    private static void writeOffers(JsonWriter json, List<PriceIndex.Offer> offers) throws IOException {
+        json.beginArray();
+        for (PriceIndex.Offer offer : offers) {
+            json.beginObject()
+                    .name("distributor_id").value(offer.distributorId)
+                    .name("distributor_name").value(offer.distributorName)
+                    .name("cost").value(offer.cost)
+                    .endObject();
+        }
+        json.endArray();
+    }
+
+    // Row id of the last insert on this connection; the writer lease must still be held
+    private static long lastInsertId(ConnectionPool.Lease lease) throws SQLException {
+        try (ResultSet set = lease.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            return set.next() ? set.getLong(1) : 0;
+        }
+    }
+
+    private static PriceIndex loadedPriceIndex() throws SQLException {
+        if (priceIndex.isLoaded()) return priceIndex;
+        try (ConnectionPool.Lease lease = writer()) {
+            if (priceIndex.isLoaded()) return priceIndex;
+            try (ResultSet set = lease.prepare(offerSelect).executeQuery()) {
+                Map<Integer, List<PriceIndex.Offer>> offers = new HashMap<>();
+                while (set.next()) {
+                    offers.computeIfAbsent(set.getInt(1), item -> new ArrayList<>()).add(readOffer(set));
+                }
+                priceIndex.load(offers);
+            }
+        }
+        return priceIndex;
+    }
+
+    public static double getLowStockThreshold() {
+        return stockIndex.lowStockThreshold();
+    }
+
+    public static void setLowStockThreshold(double threshold) {
+        stockIndex.setLowStockThreshold(threshold);
+        // The low-stock route's output depends on the threshold as much as on the rows
+        dataVersions.bump(DataVersions.Table.INVENTORY);
+    }
+
+    // Controller functions - add your routes here. getItems is provided as an example
+    // Statements come from the per-connection statement cache, so only the ResultSets are closed here
+    public static JSONArray getItems() {
+        MemoryStore store = memory;
+        if (store != null) return MemoryStore.toJson(MemoryStore.items(store.snapshot()), itemColumns);
+
+        List<ItemRecord> cached = itemCache.all();
+        if (cached != null) {
+            JSONArray array = new JSONArray();
+            cached.forEach(item -> array.add(item.toJson()));
+            return array;
+        }
+
+        String sql = "SELECT * FROM items";
+        try (ConnectionPool.Lease lease = reader(); ResultSet set = lease.prepare(sql).executeQuery()) {
             return convertResultSetToJson(set);
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -178,39 +643,332 @@ public class DatabaseManager {
         }
     }
 
+    // Streaming variant of getItems. Returns the number of rows written, or -1 if the query failed before any output.
+    // Served from the item cache when it holds the whole table, otherwise streamed from SQLite while filling it. Once
+    // the table is known not to fit, rows are streamed straight through without being collected.
+    public static int streamItems(ResultSetJsonWriter.OutputOpener out) throws IOException {
+        MemoryStore store = memory;
+        if (store != null) return MemoryStore.write(MemoryStore.items(store.snapshot()), itemColumns, null, out);
+
+        List<ItemRecord> cached = itemCache.all();
+        if (cached != null) {
+            if (cached.isEmpty()) return 0;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out.open(), StandardCharsets.UTF_8));
+            JsonWriter json = new JsonWriter(writer).beginArray();
+            for (ItemRecord item : cached) {
+                item.writeTo(json);
+            }
+            json.endArray();
+            writer.flush();
+            return cached.size();
+        }
+
+        String sql = allItemsSql;
+        if (itemCache.isOversized()) {
+            try (ConnectionPool.Lease lease = reader(); ResultSet set = lease.prepare(sql).executeQuery()) {
+                return ResultSetJsonWriter.write(set, out);
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                return -1;
+            }
+        }
+
+        long generation = itemCache.generation();
+        List<ItemRecord> rows = new ArrayList<>();
+        try (ConnectionPool.Lease lease = reader(); ResultSet set = lease.prepare(sql).executeQuery()) {
+            // Collect at most one row past the cache bound; an overflowing list tells the cache the table won't fit
+            int collectLimit = itemCache.maxEntries() + 1;
+            int written = ResultSetJsonWriter.write(set, out, rs -> {
+                if (rows.size() < collectLimit) rows.add(new ItemRecord(rs.getInt(1), rs.getString(2)));
+            });
+            itemCache.loadAll(generation, rows);
+            return written;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
+    // Projectable fields for each paged list query, mapped to their SQL expressions. The first one is the cursor.
+    private static final Map<String, String> itemFields = fields("id", "items.id", "name", "items.name");
+    private static final Map<String, String> distributorFields =
+            fields("id", "distributors.id", "name", "distributors.name");
+    private static final Map<String, String> distributorItemFields =
+            fields("id", "items.id", "name", "items.name", "cost", "distributor_prices.cost");
+    private static final Map<String, String> itemDistributorFields =
+            fields("id", "distributors.id", "name", "distributors.name", "cost", "distributor_prices.cost");
+
+    // Column lists of the unpaged list queries, for the in-memory engine's output
+    private static final List<String> itemColumns = new ArrayList<>(itemFields.keySet());
+    private static final List<String> distributorColumns = new ArrayList<>(distributorFields.keySet());
+    private static final List<String> catalogColumns = new ArrayList<>(distributorItemFields.keySet());
+
+    private static Map<String, String> fields(String... pairs) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put(pairs[i], pairs[i + 1]);
+        }
+        return map;
+    }
+
+    // Streams one keyset page: rows matching the filter (which may bind one leading parameter) with a key above
+    // page.after, in key order. Returns the number of rows written, or -1 if the query failed before any output.
+    // Throws IllegalArgumentException for fields outside the whitelist.
+    private static int streamPage(Page page, Map<String, String> allowed, String from, String filter, Integer filterArg,
+                                  ResultSetJsonWriter.OutputOpener out) throws IOException {
+        String key = allowed.get("id");
+        String sql = "SELECT " + page.selectList(allowed, "id") + " FROM " + from +
+                " WHERE " + (filter != null ? filter + " AND " : "") + key + " > ? ORDER BY " + key + " LIMIT ?";
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement stmt = lease.prepare(sql);
+            int idx = 1;
+            if (filterArg != null) stmt.setInt(idx++, filterArg);
+            stmt.setInt(idx++, page.after);
+            stmt.setInt(idx, page.sqlLimit());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return ResultSetJsonWriter.write(rs, out, row -> page.row(row.getInt(1)));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
+    // The in-memory engine's version of streamPage
+    private static int streamPage(Page page, Map<String, String> allowed, MemoryStore.Rows rows,
+                                  ResultSetJsonWriter.OutputOpener out) throws IOException {
+        return MemoryStore.write(rows, new ArrayList<>(allowed.keySet()), page, out);
+    }
+
+    public static int streamItems(Page page, ResultSetJsonWriter.OutputOpener out) throws IOException {
+        MemoryStore store = memory;
+        if (store != null) return streamPage(page, itemFields, MemoryStore.items(store.snapshot()), out);
+        return streamPage(page, itemFields, "items", null, null, out);
+    }
+
+    public static int streamDistributors(Page page, ResultSetJsonWriter.OutputOpener out) throws IOException {
+        MemoryStore store = memory;
+        if (store != null) return streamPage(page, distributorFields, MemoryStore.distributors(store.snapshot()), out);
+        return streamPage(page, distributorFields, "distributors", null, null, out);
+    }
+
+    // Keyed on item id, which the (distributor, item) index already orders
+    public static int streamItemsByDistributor(int distributorId, Page page, ResultSetJsonWriter.OutputOpener out)
+            throws IOException {
+        MemoryStore store = memory;
+        if (store != null) {
+            return streamPage(page, distributorItemFields, MemoryStore.catalogOf(store.snapshot(), distributorId), out);
+        }
+        return streamPage(page, distributorItemFields,
+                "distributor_prices JOIN items ON distributor_prices.item = items.id",
+                "distributor_prices.distributor = ?", distributorId, out);
+    }
+
+    public static int streamDistributorsByItemId(int itemId, Page page, ResultSetJsonWriter.OutputOpener out)
+            throws IOException {
+        MemoryStore store = memory;
+        if (store != null) {
+            return streamPage(page, itemDistributorFields, MemoryStore.offersFor(store.snapshot(), itemId), out);
+        }
+        return streamPage(page, itemDistributorFields,
+                "distributor_prices JOIN distributors ON distributor_prices.distributor = distributors.id",
+                "distributor_prices.item = ?", itemId, out);
+    }
+
+    public static JSONArray getOutOfStockItems() {
+        return getStockBucket(StockIndex.Bucket.OUT);
+    }
+
+    public static JSONArray getOverStock() {
+        return getStockBucket(StockIndex.Bucket.OVER);
+    }
+
+    // Items below the low-stock threshold (inventory.lowStockThreshold, 0.35 by default)
     public static JSONArray getLowStock() {
-        String sql = "SELECT inventory.id, items.name, inventory.stock, inventory.capacity " +
-                "FROM inventory " +
-                "JOIN items ON inventory.id = items.id " +
-                "WHERE (CAST(inventory.stock AS FLOAT) / inventory.capacity) < .35";
-        try {
-            ResultSet set = conn.createStatement().executeQuery(sql);
-            return convertResultSetToJson(set);
+        return getStockBucket(StockIndex.Bucket.LOW);
+    }
+
+    public static int streamOutOfStockItems(ResultSetJsonWriter.OutputOpener out) throws IOException {
+        return streamStockBucket(StockIndex.Bucket.OUT, out);
+    }
+
+    public static int streamOverStock(ResultSetJsonWriter.OutputOpener out) throws IOException {
+        return streamStockBucket(StockIndex.Bucket.OVER, out);
+    }
+
+    public static int streamLowStock(ResultSetJsonWriter.OutputOpener out) throws IOException {
+        return streamStockBucket(StockIndex.Bucket.LOW, out);
+    }
+
+    public static JSONObject getSpecificItem(int itemId) {
+        InventoryRecord record = getInventoryRecord(itemId);
+        return record != null ? record.toJson() : null;
+    }
+
+    // The inventory row for an item, or null when the item is not stocked or the lookup failed
+    public static InventoryRecord getInventoryRecord(int itemId) {
+        MemoryStore store = memory;
+        if (store != null) return store.snapshot().inventory.get(itemId);
+
+        CacheTable.Lookup<InventoryRecord> cached = inventoryCache.lookup(itemId);
+        if (cached.known) {
+            return cached.value;
+        }
+
+        long generation = inventoryCache.generation();
+        String sql = inventorySelect + "WHERE inventory.item = ?";
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement statement = lease.prepare(sql);
+            statement.setInt(1, itemId);
+            try (ResultSet set = statement.executeQuery()) {
+                if (set.next()) {
+                    InventoryRecord record = readInventory(set);
+                    inventoryCache.load(generation, itemId, record);
+                    return record;
+                } else {
+                    return null;
+                }
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
             return null;
         }
     }
 
-    public static JSONObject getSpecificItem(int itemId) {
-        String sql = "SELECT inventory.id, items.name, inventory.stock, inventory.capacity " +
-                "FROM inventory " +
-                "JOIN items ON inventory.id = items.id " +
-                "WHERE inventory.id = ?";
+    // Items and their inventory rows for the ids in a JSON array parameter; one statement whatever the number of ids.
+    // CROSS JOIN keeps json_each as the outer loop, so each id is a primary-key lookup rather than a scan of items.
+    private static final String itemDetailSelect = "SELECT items.id, items.name, inventory.stock, inventory.capacity " +
+            "FROM json_each(?) AS ids " +
+            "CROSS JOIN items ON items.id = ids.value " +
+            "LEFT JOIN inventory ON inventory.item = items.id";
+
+    // Detail for many items at once: the item, its inventory row, every distributor offer and the cheapest restock
+    // for quantity units. Items and stock come from the caches, with a single joined query for whatever they lack;
+    // offers come from the price index. Written in the order given, leaving out ids that are not items. Returns the
+    // number of items written, or -1 if a query failed before any output.
+    public static int streamItemDetails(Collection<Integer> itemIds, int quantity, ResultSetJsonWriter.OutputOpener out)
+            throws IOException {
+        Map<Integer, ItemRecord> items = new HashMap<>();
+        Map<Integer, InventoryRecord> inventory = new HashMap<>();
+        PriceIndex prices;
+        MemoryStore store = memory;
         try {
-            PreparedStatement statement = conn.prepareStatement(sql);
+            prices = loadedPriceIndex();
+            StringBuilder misses = new StringBuilder();
+            MemoryStore.Snapshot snapshot = store != null ? store.snapshot() : null;
+            for (int id : itemIds) {
+                if (snapshot != null) {
+                    ItemRecord item = snapshot.items.get(id);
+                    InventoryRecord stock = snapshot.inventory.get(id);
+                    if (item != null) items.put(id, item);
+                    if (stock != null) inventory.put(id, stock);
+                    continue;
+                }
+                CacheTable.Lookup<ItemRecord> item = itemCache.lookup(id);
+                CacheTable.Lookup<InventoryRecord> stock = inventoryCache.lookup(id);
+                if (item.known && stock.known) {
+                    if (item.value != null) items.put(id, item.value);
+                    if (stock.value != null) inventory.put(id, stock.value);
+                } else {
+                    misses.append(misses.length() == 0 ? '[' : ',').append(id);
+                }
+            }
+            if (misses.length() > 0) {
+                long itemGeneration = itemCache.generation();
+                long inventoryGeneration = inventoryCache.generation();
+                try (ConnectionPool.Lease lease = reader()) {
+                    PreparedStatement stmt = lease.prepare(itemDetailSelect);
+                    stmt.setString(1, misses.append(']').toString());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ItemRecord item = new ItemRecord(rs.getInt(1), rs.getString(2));
+                            items.put(item.id, item);
+                            itemCache.load(itemGeneration, item.id, item);
+                            int stock = rs.getInt(3);
+                            if (rs.wasNull()) continue;
+                            InventoryRecord record = new InventoryRecord(item.id, item.name, stock, rs.getInt(4));
+                            inventory.put(item.id, record);
+                            inventoryCache.load(inventoryGeneration, item.id, record);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+
+        Writer writer = null;
+        JsonWriter json = null;
+        int rows = 0;
+        for (int id : itemIds) {
+            ItemRecord item = items.get(id);
+            if (item == null) continue;
+            if (json == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(out.open(), StandardCharsets.UTF_8));
+                json = new JsonWriter(writer).beginArray();
+            }
+            writeItemDetail(json, item, inventory.get(id), prices.offers(id), quantity);
+            rows++;
+        }
+        if (json != null) {
+            json.endArray();
+            writer.flush();
+        }
+        return rows;
+    }
+
+    // Same shape as GET /item/:id/detail; offers are already sorted cheapest first
+    private static void writeItemDetail(JsonWriter json, ItemRecord item, InventoryRecord stock,
+                                        PriceIndex.Offer[] offers, int quantity) throws IOException {
+        json.beginObject().name("id").value(item.id).name("name").value(item.name).name("inventory");
+        if (stock != null) {
+            stock.writeTo(json);
+        } else {
+            json.nullValue();
+        }
+        json.name("distributors").beginArray();
+        for (PriceIndex.Offer offer : offers) {
+            json.beginObject()
+                    .name("id").value(offer.distributorId)
+                    .name("name").value(offer.distributorName)
+                    .name("cost").value(offer.cost)
+                    .endObject();
+        }
+        json.endArray().name("cheapest_restock").beginObject();
+        if (offers.length > 0) {
+            PriceIndex.Offer cheapest = offers[0];
+            json.name("distributor_id").value(cheapest.distributorId)
+                    .name("distributor_name").value(cheapest.distributorName)
+                    .name("unit_cost").value(cheapest.cost)
+                    .name("quantity").value(quantity)
+                    .name("total_cost").value(cheapest.cost * quantity);
+        } else {
+            json.name("message").value("No distributor found for given item");
+        }
+        json.endObject().endObject();
+    }
+
+    // A single item by id, or null when there is no such item or the lookup failed
+    public static ItemRecord getItemRecord(int itemId) {
+        MemoryStore store = memory;
+        if (store != null) return store.snapshot().items.get(itemId);
+
+        CacheTable.Lookup<ItemRecord> cached = itemCache.lookup(itemId);
+        if (cached.known) {
+            return cached.value;
+        }
+
+        long generation = itemCache.generation();
+        String sql = itemByIdSql;
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement statement = lease.prepare(sql);
             statement.setInt(1, itemId);
-            ResultSet set = statement.executeQuery();
-
-            if (set.next()) {
-                JSONObject obj = new JSONObject();
-                obj.put("id", set.getInt("id"));
-                obj.put("name", set.getInt("name"));
-                obj.put("stock", set.getInt("stock"));
-                obj.put("capacity", set.getInt("capacity"));
-                return obj;
-            } else {
-                return null;
+            try (ResultSet set = statement.executeQuery()) {
+                if (!set.next()) return null;
+                ItemRecord record = new ItemRecord(set.getInt(1), set.getString(2));
+                itemCache.load(generation, itemId, record);
+                return record;
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -219,9 +977,11 @@ public class DatabaseManager {
     }
 
     public static JSONArray getDistributors() {
+        MemoryStore store = memory;
+        if (store != null) return MemoryStore.toJson(MemoryStore.distributors(store.snapshot()), distributorColumns);
+
         String sql = "SELECT * FROM distributors";
-        try {
-            ResultSet set = conn.createStatement().executeQuery(sql);
+        try (ConnectionPool.Lease lease = reader(); ResultSet set = lease.prepare(sql).executeQuery()) {
             return convertResultSetToJson(set);
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -229,46 +989,135 @@ public class DatabaseManager {
         }
     }
 
+    // Streaming variant of getDistributors. Returns the number of rows written, or -1 if the query failed
+    public static int streamDistributors(ResultSetJsonWriter.OutputOpener out) throws IOException {
+        MemoryStore store = memory;
+        if (store != null) return MemoryStore.write(MemoryStore.distributors(store.snapshot()), distributorColumns, null, out);
+
+        String sql = "SELECT * FROM distributors";
+        try (ConnectionPool.Lease lease = reader(); ResultSet set = lease.prepare(sql).executeQuery()) {
+            return ResultSetJsonWriter.write(set, out);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
+    private static final String itemsByDistributorSql = "SELECT items.id, items.name, distributor_prices.cost " +
+            "FROM distributor_prices " +
+            "JOIN items ON distributor_prices.item = items.id " +
+            "WHERE distributor_prices.distributor = ?";
+    private static final String distributorsByItemSql =
+            "SELECT distributors.id, distributors.name, distributor_prices.cost " +
+            "FROM distributor_prices " +
+            "JOIN distributors ON distributor_prices.distributor = distributors.id " +
+            "WHERE distributor_prices.item = ?";
+
     public static JSONArray getItemsByDistributor(int distributorId) {
-        String sql = "SELECT items.id, items.name, distributor_prices.cost " +
-                "FROM distributor_prices " +
-                "JOIN items ON distributor_prices.item = items.id " +
-                "WHERE distributor_prices.distributor = ?";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        MemoryStore store = memory;
+        if (store != null) return MemoryStore.toJson(MemoryStore.catalogOf(store.snapshot(), distributorId), catalogColumns);
+
+        String sql = itemsByDistributorSql;
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement statement = lease.prepare(sql);
             statement.setInt(1, distributorId);
-            ResultSet rs = statement.executeQuery();
-            JSONArray json = convertResultSetToJson(rs);
-            System.out.println("Found " + json.size() + " items for distributor ID " + distributorId);
-            return json;
+            try (ResultSet rs = statement.executeQuery()) {
+                return convertResultSetToJson(rs);
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
             return null;
         }
     }
 
+    // Streaming variant of getItemsByDistributor. Returns the number of rows written, or -1 if the query failed
+    public static int streamItemsByDistributor(int distributorId, ResultSetJsonWriter.OutputOpener out) throws IOException {
+        MemoryStore store = memory;
+        if (store != null) {
+            return MemoryStore.write(MemoryStore.catalogOf(store.snapshot(), distributorId), catalogColumns, null, out);
+        }
+
+        String sql = itemsByDistributorSql;
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement statement = lease.prepare(sql);
+            statement.setInt(1, distributorId);
+            try (ResultSet rs = statement.executeQuery()) {
+                return ResultSetJsonWriter.write(rs, out);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
     public static JSONArray getDistributorsByItemId(int itemId) {
-        String sql = "SELECT distributors.id, distributors.name, distributor_prices.cost " +
-                "FROM distributor_prices " +
-                "JOIN distributors ON distributor_prices.distributor = distributors.id " +
-                "WHERE distributor_prices.item = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        MemoryStore store = memory;
+        if (store != null) return MemoryStore.toJson(MemoryStore.offersFor(store.snapshot(), itemId), catalogColumns);
+
+        String sql = distributorsByItemSql;
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setInt(1, itemId);
-            ResultSet rs = stmt.executeQuery();
-            JSONArray json = convertResultSetToJson(rs);
-            System.out.println("Found " + json.size() + " distributors for this item ID " + itemId);
-            return json;
+            try (ResultSet rs = stmt.executeQuery()) {
+                return convertResultSetToJson(rs);
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
             return null;
         }
     }
 
+    // Streaming variant of getDistributorsByItemId. Returns the number of rows written, or -1 if the query failed
+    public static int streamDistributorsByItemId(int itemId, ResultSetJsonWriter.OutputOpener out) throws IOException {
+        MemoryStore store = memory;
+        if (store != null) {
+            return MemoryStore.write(MemoryStore.offersFor(store.snapshot(), itemId), catalogColumns, null, out);
+        }
+
+        String sql = distributorsByItemSql;
+        try (ConnectionPool.Lease lease = reader()) {
+            PreparedStatement stmt = lease.prepare(sql);
+            stmt.setInt(1, itemId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return ResultSetJsonWriter.write(rs, out);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
     // POST PUT DELETE
+    // With the in-memory engine, each write below applies to the store and then makes the same cache, index and change
+    // log updates as its SQL counterpart, all while holding the store so they happen in write order. SQLite gets the
+    // write later, from the store's persister.
     public static boolean addItem(String name) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                ItemRecord item = store.addItem(name);
+                if (item == null) {
+                    System.out.println("UNIQUE constraint failed: items.name");
+                    return false;
+                }
+                itemCache.invalidateAll();
+                dataVersions.bump(DataVersions.Table.ITEMS);
+                changeLog.publish("items", "insert", "item_id", item.id, item::writeTo);
+                return true;
+            }
+        }
+
         String sql = "INSERT INTO items (name) VALUES (?)";
-        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement statement = lease.prepare(sql);
             statement.setString(1, name);
             statement.executeUpdate();
+            // The new id isn't known here, so the cached item list is dropped rather than patched
+            itemCache.invalidateAll();
+            dataVersions.bump(DataVersions.Table.ITEMS);
+            long id = lastInsertId(lease);
+            changeLog.publish("items", "insert", "item_id", id,
+                    json -> json.beginObject().name("id").value(id).name("name").value(name).endObject());
             return true;
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -277,13 +1126,29 @@ public class DatabaseManager {
     }
 
     public static boolean addToInventory(int itemId, int stock, int capacity) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                InventoryRecord record = store.addToInventory(itemId, stock, capacity);
+                if (record == null) {
+                    System.out.println("Error adding to inventory: no such item, or it is already stocked");
+                    return false;
+                }
+                inventoryRowChanged(itemId, record);
+                return true;
+            }
+        }
+
         String sql = "INSERT INTO inventory (item, stock, capacity) VALUES (?, ?, ?)";
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setInt(1, itemId);
             stmt.setInt(2, stock);
             stmt.setInt(3, capacity);
             stmt.executeUpdate();
+            // Cache updates happen while the writer is still held so they apply in commit order
+            inventoryChanged(lease, itemId);
             return true;
         } catch (SQLException e) {
             System.out.println("Error adding to inventory: " + e.getMessage());
@@ -291,39 +1156,110 @@ public class DatabaseManager {
         }
     }
 
+    // Updates go through the group-commit queue; the call returns once the batch holding it has committed
     public static boolean updateInventoryItem(int itemId, Integer stock, Integer capacity) {
-        StringBuilder sql = new StringBuilder("UPDATE inventory SET ");
-        boolean setStock = stock != null;
-        boolean setCapacity = capacity != null;
-
-        if (!setStock && !setCapacity) return false;
+        try {
+            return updateInventoryItemAsync(itemId, stock, capacity).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while updating inventory");
+            return false;
+        } catch (ExecutionException e) {
+            // A saturated pool is reported to the caller as such, not as a failed update
+            if (e.getCause() instanceof DatabaseBusyException) throw (DatabaseBusyException) e.getCause();
+            System.out.println("Error updating inventory: " + e.getCause().getMessage());
+            return false;
+        }
+    }
 
-        if (setStock) sql.append("stock = ?");
-        if (setCapacity) {
-            if (setStock) sql.append(", ");
-            sql.append("capacity = ?");
+    public static CompletableFuture<Boolean> updateInventoryItemAsync(int itemId, Integer stock, Integer capacity) {
+        if (stock == null && capacity == null) return CompletableFuture.completedFuture(false);
+        MemoryStore store = memory;
+        if (store != null) {
+            // Nothing to group: the store's persister already batches what it sends to SQLite
+            synchronized (store) {
+                InventoryRecord record = store.updateInventory(itemId, stock, capacity);
+                if (record != null) {
+                    inventoryRowChanged(itemId, record);
+                }
+                return CompletableFuture.completedFuture(record != null);
+            }
         }
+        return inventoryWriteQueue.submit(itemId, stock, capacity);
+    }
 
-        sql.append(" WHERE item = ?");
+    // Applies one group commit: every merged update in a single transaction, then the cache refresh for the rows
+    // that changed, all under the writer so nothing can interleave
+    private static Map<Integer, Boolean> applyInventoryUpdates(Collection<InventoryWriteQueue.Update> updates)
+            throws SQLException {
+        try (ConnectionPool.Lease lease = writer()) {
+            Connection conn = lease.connection();
+            Map<Integer, Boolean> results = new HashMap<>();
+            conn.setAutoCommit(false);
+            try {
+                for (InventoryWriteQueue.Update update : updates) {
+                    boolean setStock = update.stock != null;
+                    boolean setCapacity = update.capacity != null;
+                    StringBuilder sql = new StringBuilder("UPDATE inventory SET ");
+                    if (setStock) sql.append("stock = ?");
+                    if (setCapacity) {
+                        if (setStock) sql.append(", ");
+                        sql.append("capacity = ?");
+                    }
+                    sql.append(" WHERE item = ?");
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-            int idx = 1;
-            if (setStock) stmt.setInt(idx++, stock);
-            if (setCapacity) stmt.setInt(idx++, capacity);
-            stmt.setInt(idx, itemId);
+                    // Only three shapes of this statement exist, so each one ends up cached
+                    PreparedStatement stmt = lease.prepare(sql.toString());
+                    int idx = 1;
+                    if (setStock) stmt.setInt(idx++, update.stock);
+                    if (setCapacity) stmt.setInt(idx++, update.capacity);
+                    stmt.setInt(idx, update.itemId);
+                    results.put(update.itemId, stmt.executeUpdate() > 0);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
-            return stmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            System.out.println("Error updating inventory: " + e.getMessage());
-            return false;
+            results.forEach((itemId, changed) -> {
+                if (changed) inventoryChanged(lease, itemId);
+            });
+            return results;
         }
     }
 
+    public static JSONObject getWriteQueueStats() {
+        return inventoryWriteQueue.stats();
+    }
+
     public static String addDistributor(String name) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                MemoryStore.Distributor distributor = store.addDistributor(name);
+                if (distributor == null) return "Error: UNIQUE constraint failed: distributors.name";
+                dataVersions.bump(DataVersions.Table.DISTRIBUTORS);
+                changeLog.publish("distributors", "insert", "distributor_id", distributor.id,
+                        json -> json.beginObject().name("id").value(distributor.id)
+                                .name("name").value(distributor.name).endObject());
+                return "Distributor added successfully";
+            }
+        }
+
         String sql = "INSERT INTO distributors (name) VALUES (?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setString(1, name);
             int rows = stmt.executeUpdate();
+            if (rows > 0) {
+                dataVersions.bump(DataVersions.Table.DISTRIBUTORS);
+                long id = lastInsertId(lease);
+                changeLog.publish("distributors", "insert", "distributor_id", id,
+                        json -> json.beginObject().name("id").value(id).name("name").value(name).endObject());
+            }
             return rows > 0 ? "Distributor added successfully" : "Failed to add distributor";
         } catch (SQLException e) {
             e.printStackTrace();
@@ -332,13 +1268,24 @@ public class DatabaseManager {
     }
 
     public static String addItemToDistributorCatalog(int distributorId, int itemId, float cost) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                if (!store.addPrice(distributorId, itemId, cost)) return "Failed to add item to catalog";
+                memoryPricesChanged(store, itemId);
+                return "Item added to catalog successfully";
+            }
+        }
+
         String sql = "INSERT INTO distributor_prices (distributor, item, cost) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setInt(1, distributorId);
             stmt.setInt(2, itemId);
             stmt.setFloat(3, cost);
 
             int rows = stmt.executeUpdate();
+            if (rows > 0) pricesChanged(lease, itemId);
             return rows > 0 ? "Item added to catalog successfully" : "Failed to add item to catalog";
         } catch (SQLException e) {
             e.printStackTrace();
@@ -347,13 +1294,24 @@ public class DatabaseManager {
     }
 
     public static String updateDistributorCatalogPrice(int distributorId, int itemId, float newCost) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                if (!store.updatePrice(distributorId, itemId, newCost)) return "Item not found in catalog";
+                memoryPricesChanged(store, itemId);
+                return "Price updated successfully";
+            }
+        }
+
         String sql = "UPDATE distributor_prices SET cost = ? WHERE distributor = ? AND item = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setFloat(1, newCost);
             stmt.setInt(2, distributorId);
             stmt.setInt(3, itemId);
 
             int rows = stmt.executeUpdate();
+            if (rows > 0) pricesChanged(lease, itemId);
             return rows > 0 ? "Price updated successfully" : "Item not found in catalog";
         } catch (SQLException e) {
             e.printStackTrace();
@@ -361,31 +1319,64 @@ public class DatabaseManager {
         }
     }
 
-    public static JSONObject getCheapestRestockOption(int itemId, int quantity) {
-        String sql = "SELECT d.id AS distributor_id, d.name AS distributor_name, dp.cost " +
-                "FROM distributor_prices dp " +
-                "JOIN distributors d ON dp.distributor = d.id " +
-                "WHERE dp.item = ? " +
-                "ORDER BY dp.cost ASC LIMIT 1";
+    private static void memoryPricesChanged(MemoryStore store, int itemId) {
+        offersChanged(itemId, store.snapshot().offers(itemId));
+    }
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, itemId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                JSONObject result = new JSONObject();
-                result.put("distributor_id", rs.getInt("distributor_id"));
-                result.put("distributor_name", rs.getString("distributor_name"));
-                float unitCost = rs.getFloat("cost");
-                result.put("unit_cost", unitCost);
+    public static JSONObject getCheapestRestockOption(int itemId, int quantity) {
+        try {
+            PriceIndex.Offer cheapest = loadedPriceIndex().cheapest(itemId);
+            JSONObject result = new JSONObject();
+            if (cheapest != null) {
+                result.put("distributor_id", cheapest.distributorId);
+                result.put("distributor_name", cheapest.distributorName);
+                result.put("unit_cost", cheapest.cost);
                 result.put("quantity", quantity);
-                result.put("total_cost", unitCost * quantity);
-                return result;
+                result.put("total_cost", cheapest.lineCost(quantity));
             } else {
-                JSONObject result = new JSONObject();
                 result.put("message", "No distributor found for given item");
-                return result;
             }
+            return result;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error;
+        }
+    }
+
+    // Cheapest way to buy the quantity across several distributors, given how much each one can supply
+    public static JSONObject getCheapestSplitRestock(int itemId, int quantity, Map<Integer, Integer> available) {
+        try {
+            return loadedPriceIndex().cheapestSplit(itemId, quantity, available);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error;
+        }
+    }
+
+    // Restock plan for many items at once; quantities maps item id to the amount to buy, in the order to report
+    public static JSONObject getRestockPlan(Map<Integer, Integer> quantities) {
+        try {
+            return loadedPriceIndex().restockPlan(quantities);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error;
+        }
+    }
+
+    // Restock plan that tops every low-stock item back up to its capacity
+    public static JSONObject getLowStockRestockPlan() {
+        try {
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
+            for (InventoryRecord item : loadedStockIndex().bucket(StockIndex.Bucket.LOW)) {
+                if (item.capacity > item.stock) quantities.put(item.id, item.capacity - item.stock);
+            }
+            return loadedPriceIndex().restockPlan(quantities);
         } catch (SQLException e) {
             e.printStackTrace();
             JSONObject error = new JSONObject();
@@ -394,15 +1385,142 @@ public class DatabaseManager {
         }
     }
 
+    // Bulk variants of the single-row inserts. Rows are applied in batched transactions and failures are reported
+    // per row rather than aborting the load. Caches covering the table are dropped after each chunk and rebuilt on
+    // demand.
+    public static JSONObject bulkAddItems(BulkRows rows) {
+        BulkWriter.Plan plan = new BulkWriter.Plan("INSERT INTO items (name) VALUES (?)",
+                (stmt, row) -> stmt.setString(1, requireName(row)));
+        return runBulk(plan, rows, DataVersions.Table.ITEMS, "items", lease -> itemCache.invalidateAll());
+    }
+
+    public static JSONObject bulkAddDistributors(BulkRows rows) {
+        BulkWriter.Plan plan = new BulkWriter.Plan("INSERT INTO distributors (name) VALUES (?)",
+                (stmt, row) -> stmt.setString(1, requireName(row)));
+        return runBulk(plan, rows, DataVersions.Table.DISTRIBUTORS, "distributors", lease -> { });
+    }
+
+    // Rows use the same fields as POST /inventory; with upsert an existing row for the item is overwritten
+    public static JSONObject bulkAddToInventory(BulkRows rows, boolean upsert) {
+        String sql = "INSERT INTO inventory (item, stock, capacity) VALUES (?, ?, ?)";
+        if (upsert) {
+            sql += " ON CONFLICT(item) DO UPDATE SET stock = excluded.stock, capacity = excluded.capacity";
+        }
+        BulkWriter.Plan plan = new BulkWriter.Plan(sql, (stmt, row) -> {
+            stmt.setInt(1, requireInt(row, "itemId"));
+            stmt.setInt(2, requireInt(row, "stock"));
+            stmt.setInt(3, requireInt(row, "capacity"));
+        });
+        return runBulk(plan, rows, DataVersions.Table.INVENTORY, "inventory", lease -> {
+            inventoryCache.clear();
+            stockIndex.clear();
+            inventoryReloaded(lease);
+        });
+    }
+
+    // Rows use the same fields as POST /distributor-catalog. With upsert, an existing (distributor, item) price is
+    // overwritten; a pair that appears twice in one load ends up with the later cost.
+    public static JSONObject bulkAddToDistributorCatalog(BulkRows rows, boolean upsert) {
+        String sql = "INSERT INTO distributor_prices (distributor, item, cost) VALUES (?, ?, ?)";
+        if (upsert) {
+            sql += " ON CONFLICT(distributor, item) DO UPDATE SET cost = excluded.cost";
+        }
+        BulkWriter.Plan plan = new BulkWriter.Plan(sql, (stmt, row) -> {
+            stmt.setInt(1, requireInt(row, "distributor_id"));
+            stmt.setInt(2, requireInt(row, "item_id"));
+            stmt.setFloat(3, requireFloat(row, "cost"));
+        });
+        return runBulk(plan, rows, DataVersions.Table.DISTRIBUTOR_PRICES, "distributor_prices",
+                lease -> priceIndex.clear());
+    }
+
+    // Each chunk is committed on its own, so what reads the table is brought up to date after every chunk: invalidate
+    // drops the caches (with the writer still held), the in-memory engine is reloaded from SQLite, and only then is
+    // the version bumped. Before a chunk, writes the engine has queued are flushed so they reach SQLite ahead of it;
+    // the engine is held from then until it has been reloaded, so none of its writes are based on a snapshot that
+    // is missing the chunk. Between chunks, while the next one is read, nothing is held.
+    private static JSONObject runBulk(BulkWriter.Plan plan, BulkRows rows, DataVersions.Table table, String tableName,
+                                      Consumer<ConnectionPool.Lease> invalidate) {
+        try {
+            return new BulkWriter(plan, work -> {
+                MemoryStore store = memory;
+                if (store == null) {
+                    applyBulkChunk(work, null, invalidate);
+                } else {
+                    synchronized (store) {
+                        flushMemory();
+                        applyBulkChunk(work, store, invalidate);
+                    }
+                }
+                dataVersions.bump(table);
+                changeLog.publishReload(tableName);
+            }).run(rows);
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+            JSONObject error = new JSONObject();
+            error.put("error", e.getMessage());
+            return error;
+        }
+    }
+
+    private static void applyBulkChunk(BulkWriter.ChunkWork work, MemoryStore store,
+                                       Consumer<ConnectionPool.Lease> invalidate) throws SQLException {
+        try (ConnectionPool.Lease lease = writer()) {
+            try {
+                work.apply(lease);
+            } finally {
+                invalidate.accept(lease);
+                if (store != null) loadMemory(store, lease);
+            }
+        }
+    }
+
+    private static String requireName(JSONObject row) {
+        Object name = row.get("name");
+        if (!(name instanceof String) || ((String) name).trim().isEmpty()) {
+            throw new IllegalArgumentException("name is required");
+        }
+        return (String) name;
+    }
+
+    private static int requireInt(JSONObject row, String field) {
+        Object value = row.get(field);
+        if (!(value instanceof Long)) throw new IllegalArgumentException(field + " must be an integer");
+        return ((Long) value).intValue();
+    }
+
+    private static float requireFloat(JSONObject row, String field) {
+        Object value = row.get(field);
+        if (!(value instanceof Number)) throw new IllegalArgumentException(field + " must be a number");
+        return ((Number) value).floatValue();
+    }
+
     public static JSONObject deleteItemFromInventory(int itemId) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                JSONObject response = new JSONObject();
+                if (store.deleteInventory(itemId)) {
+                    inventoryRowChanged(itemId, null);
+                    response.put("message", "Item removed from inventory.");
+                    response.put("item_id", itemId);
+                } else {
+                    response.put("message", "Item not found in inventory.");
+                }
+                return response;
+            }
+        }
+
         String sql = "DELETE FROM inventory WHERE item = ?";
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setInt(1, itemId);
             int rowsAffected = stmt.executeUpdate();
 
             JSONObject response = new JSONObject();
             if (rowsAffected > 0) {
+                inventoryChanged(lease, itemId);
                 response.put("message", "Item removed from inventory.");
                 response.put("item_id", itemId);
             } else {
@@ -418,14 +1536,36 @@ public class DatabaseManager {
     }
 
     public static JSONObject deleteDistributorById(int distributorId) {
+        MemoryStore store = memory;
+        if (store != null) {
+            synchronized (store) {
+                JSONObject response = new JSONObject();
+                if (store.deleteDistributor(distributorId)) {
+                    priceIndex.removeDistributor(distributorId);
+                    dataVersions.bump(DataVersions.Table.DISTRIBUTORS, DataVersions.Table.DISTRIBUTOR_PRICES);
+                    changeLog.publish("distributors", "delete", "distributor_id", distributorId, null);
+                    response.put("message", "Distributor deleted.");
+                    response.put("distributor_id", distributorId);
+                } else {
+                    response.put("message", "Distributor not found.");
+                }
+                return response;
+            }
+        }
+
         String sql = "DELETE FROM distributors WHERE id = ?";
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = writer()) {
+            PreparedStatement stmt = lease.prepare(sql);
             stmt.setInt(1, distributorId);
             int rowsAffected = stmt.executeUpdate();
 
             JSONObject response = new JSONObject();
             if (rowsAffected > 0) {
+                priceIndex.removeDistributor(distributorId);
+                // Its catalog rows stay behind but drop out of every join on distributors
+                dataVersions.bump(DataVersions.Table.DISTRIBUTORS, DataVersions.Table.DISTRIBUTOR_PRICES);
+                changeLog.publish("distributors", "delete", "distributor_id", distributorId, null);
                 response.put("message", "Distributor deleted.");
                 response.put("distributor_id", distributorId);
             } else {
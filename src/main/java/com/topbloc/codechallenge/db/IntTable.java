@@ -0,0 +1,176 @@
+package com.topbloc.codechallenge.db;
+
+import java.util.Arrays;
+
+// Immutable map from int keys to values, kept as a run of sorted chunks: each chunk is a sorted key array next to a
+// value array. Lookups are binary searches over primitives with no boxing, and iteration is in key order, which is
+// the order keyset pages are served in. A change returns a new table and leaves this one as it was, so a reader
+// holding a table never sees a write.
+//
+// A change copies only the chunk it lands in plus the small per-chunk index, not the whole table, so a write costs
+// O(chunkSize + rows / chunkSize) rather than O(rows). The chunks themselves are shared between versions.
+final class IntTable<V> {
+    private static final int chunkSize = 256;
+    private static final IntTable<?> empty = new IntTable<>(new Chunk[0]);
+
+    private static final class Chunk {
+        final int[] keys;
+        final Object[] values;
+
+        Chunk(int[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    // No chunk is ever empty. firstKeys[i] is the first key of chunk i, starts[i] the index of its first row, and
+    // starts[chunks.length] the size of the table.
+    private final Chunk[] chunks;
+    private final int[] firstKeys;
+    private final int[] starts;
+
+    private IntTable(Chunk[] chunks) {
+        this.chunks = chunks;
+        firstKeys = new int[chunks.length];
+        starts = new int[chunks.length + 1];
+        for (int i = 0; i < chunks.length; i++) {
+            firstKeys[i] = chunks[i].keys[0];
+            starts[i + 1] = starts[i] + chunks[i].keys.length;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> IntTable<V> empty() {
+        return (IntTable<V>) empty;
+    }
+
+    // keys must be sorted ascending and distinct
+    static <V> IntTable<V> of(int[] keys, Object[] values) {
+        Chunk[] chunks = new Chunk[(keys.length + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            int from = i * chunkSize;
+            int to = Math.min(keys.length, from + chunkSize);
+            chunks[i] = new Chunk(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(values, from, to));
+        }
+        return new IntTable<>(chunks);
+    }
+
+    int size() {
+        return starts[chunks.length];
+    }
+
+    int keyAt(int index) {
+        int chunk = chunkAt(index);
+        return chunks[chunk].keys[index - starts[chunk]];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        int chunk = chunkAt(index);
+        return (V) chunks[chunk].values[index - starts[chunk]];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int chunk = chunkFor(key);
+        if (chunk < 0) return null;
+        int index = Arrays.binarySearch(chunks[chunk].keys, key);
+        return index >= 0 ? (V) chunks[chunk].values[index] : null;
+    }
+
+    boolean containsKey(int key) {
+        int chunk = chunkFor(key);
+        return chunk >= 0 && Arrays.binarySearch(chunks[chunk].keys, key) >= 0;
+    }
+
+    // Index of the first key greater than the given one, which is where a page after that key starts
+    int indexAfter(int key) {
+        int chunk = chunkFor(key);
+        if (chunk < 0) return 0;
+        int index = Arrays.binarySearch(chunks[chunk].keys, key);
+        return starts[chunk] + (index >= 0 ? index + 1 : -index - 1);
+    }
+
+    int maxKey() {
+        if (chunks.length == 0) return 0;
+        int[] last = chunks[chunks.length - 1].keys;
+        return last[last.length - 1];
+    }
+
+    IntTable<V> with(int key, V value) {
+        if (chunks.length == 0) return new IntTable<>(new Chunk[] {new Chunk(new int[] {key}, new Object[] {value})});
+        // A key below every chunk goes at the front of the first one
+        int chunk = Math.max(chunkFor(key), 0);
+        Chunk old = chunks[chunk];
+        int index = Arrays.binarySearch(old.keys, key);
+        if (index >= 0) {
+            Object[] newValues = old.values.clone();
+            newValues[index] = value;
+            return replace(chunk, 1, new Chunk(old.keys, newValues));
+        }
+        int at = -index - 1;
+        int[] newKeys = new int[old.keys.length + 1];
+        Object[] newValues = new Object[old.keys.length + 1];
+        System.arraycopy(old.keys, 0, newKeys, 0, at);
+        System.arraycopy(old.values, 0, newValues, 0, at);
+        newKeys[at] = key;
+        newValues[at] = value;
+        System.arraycopy(old.keys, at, newKeys, at + 1, old.keys.length - at);
+        System.arraycopy(old.values, at, newValues, at + 1, old.keys.length - at);
+        if (newKeys.length <= 2 * chunkSize) return replace(chunk, 1, new Chunk(newKeys, newValues));
+        // A chunk that has grown to twice the target size is split in two
+        int half = newKeys.length / 2;
+        return replace(chunk, 1,
+                new Chunk(Arrays.copyOfRange(newKeys, 0, half), Arrays.copyOfRange(newValues, 0, half)),
+                new Chunk(Arrays.copyOfRange(newKeys, half, newKeys.length),
+                        Arrays.copyOfRange(newValues, half, newKeys.length)));
+    }
+
+    IntTable<V> without(int key) {
+        int chunk = chunkFor(key);
+        if (chunk < 0) return this;
+        Chunk old = chunks[chunk];
+        int index = Arrays.binarySearch(old.keys, key);
+        if (index < 0) return this;
+        if (old.keys.length == 1) return replace(chunk, 1);
+        int[] newKeys = new int[old.keys.length - 1];
+        Object[] newValues = new Object[old.keys.length - 1];
+        System.arraycopy(old.keys, 0, newKeys, 0, index);
+        System.arraycopy(old.values, 0, newValues, 0, index);
+        System.arraycopy(old.keys, index + 1, newKeys, index, old.keys.length - index - 1);
+        System.arraycopy(old.values, index + 1, newValues, index, old.keys.length - index - 1);
+        // A chunk that has shrunk below half is merged into the next one while they fit, so deletes don't leave a
+        // long run of tiny chunks behind
+        if (newKeys.length < chunkSize / 2 && chunk + 1 < chunks.length
+                && newKeys.length + chunks[chunk + 1].keys.length <= 2 * chunkSize) {
+            Chunk next = chunks[chunk + 1];
+            int[] mergedKeys = Arrays.copyOf(newKeys, newKeys.length + next.keys.length);
+            Object[] mergedValues = Arrays.copyOf(newValues, newKeys.length + next.keys.length);
+            System.arraycopy(next.keys, 0, mergedKeys, newKeys.length, next.keys.length);
+            System.arraycopy(next.values, 0, mergedValues, newKeys.length, next.keys.length);
+            return replace(chunk, 2, new Chunk(mergedKeys, mergedValues));
+        }
+        return replace(chunk, 1, new Chunk(newKeys, newValues));
+    }
+
+    // Chunk that holds the key if anything does, or -1 when the key is below every chunk
+    private int chunkFor(int key) {
+        int chunk = Arrays.binarySearch(firstKeys, key);
+        return chunk >= 0 ? chunk : -chunk - 2;
+    }
+
+    private int chunkAt(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index " + index + " out of " + size());
+        int chunk = Arrays.binarySearch(starts, 0, chunks.length, index);
+        return chunk >= 0 ? chunk : -chunk - 2;
+    }
+
+    // New table with count chunks starting at from swapped for the given ones
+    private IntTable<V> replace(int from, int count, Chunk... replacements) {
+        Chunk[] newChunks = new Chunk[chunks.length - count + replacements.length];
+        System.arraycopy(chunks, 0, newChunks, 0, from);
+        System.arraycopy(replacements, 0, newChunks, from, replacements.length);
+        System.arraycopy(chunks, from + count, newChunks, from + replacements.length, chunks.length - from - count);
+        return new IntTable<>(newChunks);
+    }
+}
@@ -0,0 +1,13 @@
+package com.topbloc.codechallenge.db;
+
+import java.util.List;
+
+// Receives every committed inventory change, in commit order. Calls are made while the writer is held, so nothing
+// else writes in the meantime and a listener sees the same sequence of states the table went through; keep them short.
+public interface InventoryListener {
+    // The row as committed, or null when it was deleted
+    void inventoryChanged(int itemId, InventoryRecord record);
+
+    // Every row. Sent when the listener is registered and after the table changed wholesale (bulk load, reset).
+    void inventoryLoaded(List<InventoryRecord> records);
+}
@@ -0,0 +1,39 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+
+// Immutable inventory row joined with its item name, keyed by item id
+public final class InventoryRecord {
+    public final int id;
+    public final String name;
+    public final int stock;
+    public final int capacity;
+
+    public InventoryRecord(int id, String name, int stock, int capacity) {
+        this.id = id;
+        this.name = name;
+        this.stock = stock;
+        this.capacity = capacity;
+    }
+
+    public JSONObject toJson() {
+        JSONObject obj = new JSONObject();
+        obj.put("id", id);
+        obj.put("name", name);
+        obj.put("stock", stock);
+        obj.put("capacity", capacity);
+        return obj;
+    }
+
+    public void writeTo(JsonWriter out) throws IOException {
+        out.beginObject()
+                .name("id").value(id)
+                .name("name").value(name)
+                .name("stock").value(stock)
+                .name("capacity").value(capacity)
+                .endObject();
+    }
+}
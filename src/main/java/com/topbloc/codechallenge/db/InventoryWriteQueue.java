@@ -0,0 +1,162 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-writer queue that turns concurrent inventory updates into group commits. One background thread takes
+// whatever updates are waiting (up to maxBatch, optionally lingering maxDelay for more), merges updates to the same
+// item, applies them in one transaction and only then completes every caller's future.
+//
+// A batch that fails in any way, an Error included, fails its callers and the thread carries on with the next one.
+// Should the thread still end, everything queued is failed and the next submit starts a new one, so no caller is
+// ever left waiting on a future nothing will complete.
+class InventoryWriteQueue {
+    static final class Update {
+        final int itemId;
+        Integer stock;
+        Integer capacity;
+
+        Update(int itemId, Integer stock, Integer capacity) {
+            this.itemId = itemId;
+            this.stock = stock;
+            this.capacity = capacity;
+        }
+    }
+
+    // Applies a batch of merged updates in a single transaction and reports, per item id, whether a row changed
+    interface BatchApplier {
+        Map<Integer, Boolean> apply(Collection<Update> updates) throws Exception;
+    }
+
+    private static final class Request {
+        final Update update;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Request(Update update) {
+            this.update = update;
+        }
+    }
+
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private final BatchApplier applier;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private Thread writerThread;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    InventoryWriteQueue(BatchApplier applier, int maxBatch, long maxDelayMicros) {
+        this.applier = applier;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    CompletableFuture<Boolean> submit(int itemId, Integer stock, Integer capacity) {
+        Request request = new Request(new Update(itemId, stock, capacity));
+        requests.incrementAndGet();
+        // Queued before the thread is checked, so a thread that is ending either sees the request or is replaced
+        pending.add(request);
+        startIfNeeded();
+        return request.result;
+    }
+
+    private synchronized void startIfNeeded() {
+        if (writerThread != null) return;
+        writerThread = new Thread(this::run, "inventory-group-commit");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void run() {
+        try {
+            runBatches();
+        } finally {
+            synchronized (this) {
+                writerThread = null;
+            }
+            List<Request> orphaned = new ArrayList<>();
+            pending.drainTo(orphaned);
+            IllegalStateException stopped = new IllegalStateException("Inventory write queue stopped");
+            orphaned.forEach(request -> request.result.completeExceptionally(stopped));
+        }
+    }
+
+    private void runBatches() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(pending.take());
+                pending.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch && maxDelayNanos > 0) {
+                    Request next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                batch.forEach(request -> request.result.completeExceptionally(e));
+                return;
+            } catch (Throwable e) {
+                failedBatches.incrementAndGet();
+                System.out.println("Inventory write queue: batch failed: " + e);
+                batch.forEach(request -> request.result.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Request> batch) {
+        // Later updates to the same item win field by field, so a stock-only and a capacity-only update both land
+        Map<Integer, Update> merged = new LinkedHashMap<>();
+        for (Request request : batch) {
+            Update update = request.update;
+            Update existing = merged.get(update.itemId);
+            if (existing == null) {
+                merged.put(update.itemId, new Update(update.itemId, update.stock, update.capacity));
+            } else {
+                coalesced.incrementAndGet();
+                if (update.stock != null) existing.stock = update.stock;
+                if (update.capacity != null) existing.capacity = update.capacity;
+            }
+        }
+
+        batches.incrementAndGet();
+        try {
+            Map<Integer, Boolean> results = applier.apply(merged.values());
+            for (Request request : batch) {
+                request.result.complete(results.getOrDefault(request.update.itemId, false));
+            }
+        } catch (Exception | Error e) {
+            failedBatches.incrementAndGet();
+            batch.forEach(request -> request.result.completeExceptionally(e));
+        }
+    }
+
+    JSONObject stats() {
+        long batchCount = batches.get();
+        JSONObject stats = new JSONObject();
+        stats.put("requests", requests.get());
+        stats.put("batches", batchCount);
+        stats.put("coalesced", coalesced.get());
+        stats.put("failed_batches", failedBatches.get());
+        stats.put("pending", pending.size());
+        stats.put("avg_batch_size", batchCount == 0 ? 0.0 : (double) (requests.get() - pending.size()) / batchCount);
+        stats.put("max_batch", maxBatch);
+        return stats;
+    }
+}
@@ -0,0 +1,28 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+
+// Immutable row of the items table
+public final class ItemRecord {
+    public final int id;
+    public final String name;
+
+    public ItemRecord(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public JSONObject toJson() {
+        JSONObject obj = new JSONObject();
+        obj.put("id", id);
+        obj.put("name", name);
+        return obj;
+    }
+
+    public void writeTo(JsonWriter out) throws IOException {
+        out.beginObject().name("id").value(id).name("name").value(name).endObject();
+    }
+}
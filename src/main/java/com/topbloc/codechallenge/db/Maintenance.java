@@ -0,0 +1,254 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Online maintenance of the database file. The database runs in WAL mode, so reads carry on against the other
+// connections throughout.
+// - backup: VACUUM INTO a new file under maintenance.backupDir. The copy is a consistent, compacted snapshot and is
+//   taken on a read connection, so writes are not held up either.
+// - a pass, every maintenance.intervalMillis: once more than maintenance.maxFreeRatio of the pages are free, an
+//   incremental vacuum of at most maintenance.vacuumPages pages, then PRAGMA optimize. Each pass holds the writer
+//   only briefly.
+// - compact: a full VACUUM that also switches the file to auto_vacuum = INCREMENTAL, which the passes need to give
+//   pages back. It holds the writer for as long as it takes, so it is only run on request.
+// - report: page and freelist counts, and the sizes of the database and WAL files
+// Only one of these runs at a time.
+public final class Maintenance {
+    private static final String backupDir = System.getProperty("maintenance.backupDir", "backups");
+    private static final long intervalMillis = Long.getLong("maintenance.intervalMillis", 60 * 60 * 1000);
+    private static final double maxFreeRatio =
+            Double.parseDouble(System.getProperty("maintenance.maxFreeRatio", "0.1"));
+    private static final int vacuumPages = Integer.getInteger("maintenance.vacuumPages", 1000);
+    // PRAGMA auto_vacuum values
+    private static final int autoVacuumIncremental = 2;
+
+    private static final Object operation = new Object();
+    private static ScheduledThreadPoolExecutor scheduler;
+    private static long backups;
+    private static long passes;
+    private static long pagesFreed;
+    private static long lastPassAt;
+    private static String lastError;
+
+    private Maintenance() {
+    }
+
+    public static synchronized void start() {
+        if (scheduler != null || intervalMillis <= 0) return;
+        scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(Maintenance::scheduledPass, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void scheduledPass() {
+        try {
+            runPass();
+        } catch (SQLException | RuntimeException e) {
+            // The schedule carries on; the next pass may well succeed
+            System.out.println("Maintenance pass failed: " + e.getMessage());
+            recordError(e.getMessage());
+        }
+    }
+
+    private static final class Pages {
+        final long pageSize;
+        final long pageCount;
+        final long freelistCount;
+        final int autoVacuum;
+
+        Pages(Connection conn) throws SQLException {
+            pageSize = pragma(conn, "page_size");
+            pageCount = pragma(conn, "page_count");
+            freelistCount = pragma(conn, "freelist_count");
+            autoVacuum = (int) pragma(conn, "auto_vacuum");
+        }
+
+        double freeRatio() {
+            return pageCount > 0 ? (double) freelistCount / pageCount : 0;
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("page_size", pageSize);
+            json.put("page_count", pageCount);
+            json.put("freelist_count", freelistCount);
+            json.put("free_ratio", freeRatio());
+            json.put("free_bytes", freelistCount * pageSize);
+            json.put("auto_vacuum", autoVacuum == 0 ? "none" : autoVacuum == 1 ? "full" : "incremental");
+            return json;
+        }
+    }
+
+    private static long pragma(Connection conn, String name) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Copies the database to backupDir/name, or to a timestamped file when name is null. Writes the in-memory engine
+    // has acknowledged are flushed first, so they are in the copy.
+    public static JSONObject backup(String name) throws SQLException {
+        String fileName = name != null ? name : "challenge-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        if (!fileName.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*")) {
+            throw new IllegalArgumentException("name may only contain letters, digits, '.', '_' and '-'");
+        }
+        if (!fileName.endsWith(".db")) fileName += ".db";
+
+        synchronized (operation) {
+            File dir = new File(backupDir);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IllegalStateException("Cannot create backup directory " + dir.getAbsolutePath());
+            }
+            File target = new File(dir, fileName);
+            if (target.exists()) throw new IllegalArgumentException("Backup " + fileName + " already exists");
+
+            DatabaseManager.flushMemory();
+            long start = System.currentTimeMillis();
+            try (ConnectionPool.Lease lease = DatabaseManager.reader()) {
+                vacuumInto(lease.connection(), target);
+            } catch (SQLException | RuntimeException e) {
+                target.delete();
+                throw e;
+            }
+            synchronized (Maintenance.class) {
+                backups++;
+            }
+            JSONObject result = describe(target);
+            result.put("ms", System.currentTimeMillis() - start);
+            return result;
+        }
+    }
+
+    // query_only refuses VACUUM INTO even though only the target file is written, so it is lifted for the one
+    // statement. The database itself is only read.
+    private static void vacuumInto(Connection conn, File target) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA query_only = OFF");
+            try (PreparedStatement vacuum = conn.prepareStatement("VACUUM INTO ?")) {
+                vacuum.setString(1, target.getAbsolutePath());
+                vacuum.execute();
+            } finally {
+                stmt.execute("PRAGMA query_only = ON");
+            }
+        }
+    }
+
+    public static JSONArray listBackups() {
+        File[] files = new File(backupDir).listFiles((dir, name) -> name.endsWith(".db"));
+        JSONArray list = new JSONArray();
+        if (files == null) return list;
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        for (File file : files) {
+            list.add(describe(file));
+        }
+        return list;
+    }
+
+    private static JSONObject describe(File file) {
+        JSONObject json = new JSONObject();
+        json.put("name", file.getName());
+        json.put("path", file.getAbsolutePath());
+        json.put("bytes", file.length());
+        json.put("modified", file.lastModified());
+        return json;
+    }
+
+    // Gives free pages back to the file system, when auto_vacuum allows it and enough are free, and refreshes the
+    // planner statistics
+    public static JSONObject runPass() throws SQLException {
+        synchronized (operation) {
+            JSONObject result = new JSONObject();
+            long freed = 0;
+            try (ConnectionPool.Lease lease = DatabaseManager.writer()) {
+                Connection conn = lease.connection();
+                Pages before = new Pages(conn);
+                if (before.autoVacuum == autoVacuumIncremental && before.freeRatio() > maxFreeRatio) {
+                    // Each step of the statement frees one page; executeUpdate runs it to the end, execute stops at one
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.executeUpdate("PRAGMA incremental_vacuum(" + vacuumPages + ")");
+                        // The file only shrinks once the truncation is checkpointed; PASSIVE never waits on readers
+                        stmt.execute("PRAGMA wal_checkpoint(PASSIVE)");
+                    }
+                    freed = before.freelistCount - new Pages(conn).freelistCount;
+                } else if (before.autoVacuum != autoVacuumIncremental && before.freeRatio() > maxFreeRatio) {
+                    result.put("hint", "auto_vacuum is off; POST /admin/maintenance/compact to reclaim free pages");
+                }
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("PRAGMA optimize");
+                }
+            }
+            result.put("pages_freed", freed);
+            synchronized (Maintenance.class) {
+                passes++;
+                pagesFreed += freed;
+                lastPassAt = System.currentTimeMillis();
+                lastError = null;
+            }
+            return result;
+        }
+    }
+
+    // Rebuilds the whole file, and turns on incremental auto_vacuum for the passes that follow
+    public static JSONObject compact() throws SQLException {
+        synchronized (operation) {
+            JSONObject result = new JSONObject();
+            long start = System.currentTimeMillis();
+            try (ConnectionPool.Lease lease = DatabaseManager.writer()) {
+                Connection conn = lease.connection();
+                result.put("before", new Pages(conn).toJson());
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                    stmt.execute("VACUUM");
+                }
+                result.put("after", new Pages(conn).toJson());
+            }
+            result.put("ms", System.currentTimeMillis() - start);
+            return result;
+        }
+    }
+
+    private static synchronized void recordError(String error) {
+        lastError = error;
+    }
+
+    // Fragmentation and file sizes, read on a read connection
+    public static JSONObject report() throws SQLException {
+        JSONObject report;
+        try (ConnectionPool.Lease lease = DatabaseManager.reader()) {
+            report = new Pages(lease.connection()).toJson();
+        }
+        File db = DatabaseManager.databaseFile();
+        report.put("file_bytes", db.length());
+        report.put("wal_bytes", new File(db.getPath() + "-wal").length());
+        report.put("backup_dir", new File(backupDir).getAbsolutePath());
+        synchronized (Maintenance.class) {
+            report.put("scheduled", scheduler != null);
+            report.put("interval_ms", intervalMillis);
+            report.put("max_free_ratio", maxFreeRatio);
+            report.put("backups", backups);
+            report.put("passes", passes);
+            report.put("pages_freed", pagesFreed);
+            report.put("last_pass", lastPassAt > 0 ? lastPassAt : null);
+            report.put("last_error", lastError);
+        }
+        return report;
+    }
+}
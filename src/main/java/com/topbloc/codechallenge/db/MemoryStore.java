@@ -0,0 +1,668 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.json.JsonWriter;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// The in-memory engine (engine.inMemory): all four tables held as an immutable Snapshot, so reads never touch SQLite
+// and never wait on a lock. Writes are serialized on the store, check the constraints the schema would, and publish
+// a new snapshot that copies only the tables they touch. Readers keep whatever snapshot they started with.
+//
+// SQLite stays the durable copy. Each write is queued and a single persister thread applies the queue in order, in
+// batched transactions, so a write returns before it is on disk. The queue is flushed before bulk loads, resets and
+// shutdown; after a crash, whatever had not been persisted is lost and the next start reloads from SQLite.
+final class MemoryStore {
+    interface WriterSource {
+        ConnectionPool.Lease writer() throws SQLException;
+    }
+
+    static final class Distributor {
+        final int id;
+        final String name;
+
+        Distributor(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    static final class Price {
+        final int distributorId;
+        final int itemId;
+        final float cost;
+
+        Price(int distributorId, int itemId, float cost) {
+            this.distributorId = distributorId;
+            this.itemId = itemId;
+            this.cost = cost;
+        }
+    }
+
+    // Everything a read needs, consistent across tables. Prices are kept per item (by distributor id) and per
+    // distributor (by item id), holding only rows whose item and distributor both exist, as the SQL joins do.
+    static final class Snapshot {
+        final long version;
+        final IntTable<ItemRecord> items;
+        final IntTable<InventoryRecord> inventory;
+        final IntTable<Distributor> distributors;
+        final IntTable<Price[]> pricesByItem;
+        final IntTable<Price[]> pricesByDistributor;
+
+        Snapshot(long version, IntTable<ItemRecord> items, IntTable<InventoryRecord> inventory,
+                 IntTable<Distributor> distributors, IntTable<Price[]> pricesByItem,
+                 IntTable<Price[]> pricesByDistributor) {
+            this.version = version;
+            this.items = items;
+            this.inventory = inventory;
+            this.distributors = distributors;
+            this.pricesByItem = pricesByItem;
+            this.pricesByDistributor = pricesByDistributor;
+        }
+
+        // An item's offers in the price index's form
+        List<PriceIndex.Offer> offers(int itemId) {
+            Price[] prices = pricesByItem.get(itemId);
+            if (prices == null) return Collections.emptyList();
+            List<PriceIndex.Offer> offers = new ArrayList<>(prices.length);
+            for (Price price : prices) {
+                offers.add(new PriceIndex.Offer(price.distributorId, distributors.get(price.distributorId).name,
+                        price.cost));
+            }
+            return offers;
+        }
+
+        Map<Integer, List<PriceIndex.Offer>> allOffers() {
+            Map<Integer, List<PriceIndex.Offer>> offers = new HashMap<>();
+            for (int i = 0; i < pricesByItem.size(); i++) {
+                offers.put(pricesByItem.keyAt(i), offers(pricesByItem.keyAt(i)));
+            }
+            return offers;
+        }
+
+        List<InventoryRecord> inventoryRows() {
+            List<InventoryRecord> rows = new ArrayList<>(inventory.size());
+            for (int i = 0; i < inventory.size(); i++) {
+                rows.add(inventory.valueAt(i));
+            }
+            return rows;
+        }
+    }
+
+    // A statement to replay against SQLite
+    private static final class Write {
+        final String sql;
+        final Object[] args;
+
+        Write(String sql, Object... args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    private static final Comparator<Price> byDistributor = Comparator.comparingInt(price -> price.distributorId);
+    private static final Comparator<Price> byItem = Comparator.comparingInt(price -> price.itemId);
+
+    private final WriterSource leases;
+    private final Runnable diverged;
+    private final int maxBatch = Integer.getInteger("engine.persist.maxBatch", 512);
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private volatile Snapshot snapshot;
+    // Unique names, for the writers only
+    private final Set<String> itemNames = new HashSet<>();
+    private final Set<String> distributorNames = new HashSet<>();
+
+    // Persister progress
+    private final Object progress = new Object();
+    private long enqueued;
+    private long persisted;
+    private long batches;
+    private long failures;
+    // Statements SQLite rejected, and whether one has been since the last load
+    private long skipped;
+    private boolean divergent;
+    private String lastError;
+
+    // diverged is called on the persister thread after a batch in which SQLite rejected a statement. The caller is
+    // expected to reload the store, but not on that thread: the reload flushes the queue first and would wait on it.
+    MemoryStore(WriterSource leases, Runnable diverged) {
+        this.leases = leases;
+        this.diverged = diverged;
+        Thread persister = new Thread(this::persistLoop, "memory-persister");
+        persister.setDaemon(true);
+        persister.start();
+    }
+
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // Replaces the whole snapshot with the tables as SQLite has them. The queue must be flushed first.
+    synchronized void load(ConnectionPool.Lease lease, List<InventoryRecord> inventoryRows) throws SQLException {
+        synchronized (progress) {
+            divergent = false;
+        }
+        itemNames.clear();
+        distributorNames.clear();
+
+        List<ItemRecord> items = new ArrayList<>();
+        try (ResultSet set = lease.prepare("SELECT id, name FROM items ORDER BY id").executeQuery()) {
+            while (set.next()) {
+                items.add(new ItemRecord(set.getInt(1), set.getString(2)));
+                itemNames.add(set.getString(2));
+            }
+        }
+        List<Distributor> distributors = new ArrayList<>();
+        try (ResultSet set = lease.prepare("SELECT id, name FROM distributors ORDER BY id").executeQuery()) {
+            while (set.next()) {
+                distributors.add(new Distributor(set.getInt(1), set.getString(2)));
+                distributorNames.add(set.getString(2));
+            }
+        }
+        Map<Integer, List<Price>> byItemRows = new HashMap<>();
+        Map<Integer, List<Price>> byDistributorRows = new HashMap<>();
+        String sql = "SELECT dp.distributor, dp.item, dp.cost FROM distributor_prices dp " +
+                "JOIN distributors ON dp.distributor = distributors.id " +
+                "JOIN items ON dp.item = items.id";
+        try (ResultSet set = lease.prepare(sql).executeQuery()) {
+            while (set.next()) {
+                Price price = new Price(set.getInt(1), set.getInt(2), set.getFloat(3));
+                byItemRows.computeIfAbsent(price.itemId, id -> new ArrayList<>()).add(price);
+                byDistributorRows.computeIfAbsent(price.distributorId, id -> new ArrayList<>()).add(price);
+            }
+        }
+
+        long version = snapshot != null ? snapshot.version + 1 : 1;
+        snapshot = new Snapshot(version,
+                table(items, item -> item.id),
+                table(inventoryRows, record -> record.id),
+                table(distributors, distributor -> distributor.id),
+                priceTable(byItemRows, byDistributor),
+                priceTable(byDistributorRows, byItem));
+    }
+
+    private interface Key<V> {
+        int of(V value);
+    }
+
+    // rows must already be in key order
+    private static <V> IntTable<V> table(List<V> rows, Key<V> key) {
+        int[] keys = new int[rows.size()];
+        Object[] values = new Object[rows.size()];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = rows.get(i);
+            keys[i] = key.of(rows.get(i));
+        }
+        return IntTable.of(keys, values);
+    }
+
+    private static IntTable<Price[]> priceTable(Map<Integer, List<Price>> rows, Comparator<Price> order) {
+        int[] keys = rows.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Price[] prices = rows.get(keys[i]).toArray(new Price[0]);
+            Arrays.sort(prices, order);
+            values[i] = prices;
+        }
+        return IntTable.of(keys, values);
+    }
+
+    private void publish(IntTable<ItemRecord> items, IntTable<InventoryRecord> inventory,
+                         IntTable<Distributor> distributors, IntTable<Price[]> pricesByItem,
+                         IntTable<Price[]> pricesByDistributor) {
+        snapshot = new Snapshot(snapshot.version + 1, items, inventory, distributors, pricesByItem,
+                pricesByDistributor);
+    }
+
+    // Writes. Each returns null (or false) where the SQL write would have failed or changed nothing.
+
+    // Ids are assigned as SQLite would for an INTEGER PRIMARY KEY and written explicitly, so both copies agree
+    synchronized ItemRecord addItem(String name) {
+        if (name == null || !itemNames.add(name)) return null;
+        Snapshot current = snapshot;
+        ItemRecord item = new ItemRecord(current.items.maxKey() + 1, name);
+        publish(current.items.with(item.id, item), current.inventory, current.distributors, current.pricesByItem,
+                current.pricesByDistributor);
+        persist(new Write("INSERT INTO items (id, name) VALUES (?, ?)", item.id, name));
+        return item;
+    }
+
+    // Unlike SQLite without foreign keys, a row for an item that does not exist is refused: it could never be read
+    synchronized InventoryRecord addToInventory(int itemId, int stock, int capacity) {
+        Snapshot current = snapshot;
+        ItemRecord item = current.items.get(itemId);
+        if (item == null || current.inventory.containsKey(itemId)) return null;
+        InventoryRecord record = new InventoryRecord(itemId, item.name, stock, capacity);
+        publish(current.items, current.inventory.with(itemId, record), current.distributors, current.pricesByItem,
+                current.pricesByDistributor);
+        persist(new Write("INSERT INTO inventory (item, stock, capacity) VALUES (?, ?, ?)", itemId, stock, capacity));
+        return record;
+    }
+
+    synchronized InventoryRecord updateInventory(int itemId, Integer stock, Integer capacity) {
+        Snapshot current = snapshot;
+        InventoryRecord old = current.inventory.get(itemId);
+        if (old == null) return null;
+        InventoryRecord record = new InventoryRecord(itemId, old.name,
+                stock != null ? stock : old.stock, capacity != null ? capacity : old.capacity);
+        publish(current.items, current.inventory.with(itemId, record), current.distributors, current.pricesByItem,
+                current.pricesByDistributor);
+        persist(new Write("UPDATE inventory SET stock = ?, capacity = ? WHERE item = ?",
+                record.stock, record.capacity, itemId));
+        return record;
+    }
+
+    synchronized boolean deleteInventory(int itemId) {
+        Snapshot current = snapshot;
+        if (!current.inventory.containsKey(itemId)) return false;
+        publish(current.items, current.inventory.without(itemId), current.distributors, current.pricesByItem,
+                current.pricesByDistributor);
+        persist(new Write("DELETE FROM inventory WHERE item = ?", itemId));
+        return true;
+    }
+
+    synchronized Distributor addDistributor(String name) {
+        if (name == null || !distributorNames.add(name)) return null;
+        Snapshot current = snapshot;
+        Distributor distributor = new Distributor(current.distributors.maxKey() + 1, name);
+        publish(current.items, current.inventory, current.distributors.with(distributor.id, distributor),
+                current.pricesByItem, current.pricesByDistributor);
+        persist(new Write("INSERT INTO distributors (id, name) VALUES (?, ?)", distributor.id, name));
+        return distributor;
+    }
+
+    // The (distributor, item) pair is unique, as the index on distributor_prices makes it
+    synchronized boolean addPrice(int distributorId, int itemId, float cost) {
+        Snapshot current = snapshot;
+        if (!current.distributors.containsKey(distributorId) || !current.items.containsKey(itemId)
+                || findPrice(current, distributorId, itemId) != null) {
+            return false;
+        }
+        setPrice(current, new Price(distributorId, itemId, cost));
+        persist(new Write("INSERT INTO distributor_prices (distributor, item, cost) VALUES (?, ?, ?)",
+                distributorId, itemId, cost));
+        return true;
+    }
+
+    synchronized boolean updatePrice(int distributorId, int itemId, float cost) {
+        Snapshot current = snapshot;
+        if (findPrice(current, distributorId, itemId) == null) return false;
+        setPrice(current, new Price(distributorId, itemId, cost));
+        persist(new Write("UPDATE distributor_prices SET cost = ? WHERE distributor = ? AND item = ?",
+                cost, distributorId, itemId));
+        return true;
+    }
+
+    // Its catalog rows go too. SQLite keeps them without foreign keys, but they could come back into the joins if the
+    // id were ever reused, so they are deleted there as well.
+    synchronized boolean deleteDistributor(int distributorId) {
+        Snapshot current = snapshot;
+        Distributor distributor = current.distributors.get(distributorId);
+        if (distributor == null) return false;
+        distributorNames.remove(distributor.name);
+        IntTable<Price[]> pricesByItem = current.pricesByItem;
+        Price[] catalog = current.pricesByDistributor.get(distributorId);
+        if (catalog != null) {
+            for (Price price : catalog) {
+                pricesByItem = replaceIn(pricesByItem, price.itemId, distributorId, null, byDistributor,
+                        p -> p.distributorId);
+            }
+        }
+        publish(current.items, current.inventory, current.distributors.without(distributorId), pricesByItem,
+                current.pricesByDistributor.without(distributorId));
+        persist(new Write("DELETE FROM distributors WHERE id = ?", distributorId));
+        persist(new Write("DELETE FROM distributor_prices WHERE distributor = ?", distributorId));
+        return true;
+    }
+
+    private static Price findPrice(Snapshot snapshot, int distributorId, int itemId) {
+        Price[] prices = snapshot.pricesByItem.get(itemId);
+        if (prices == null) return null;
+        for (Price price : prices) {
+            if (price.distributorId == distributorId) return price;
+        }
+        return null;
+    }
+
+    private void setPrice(Snapshot current, Price price) {
+        publish(current.items, current.inventory, current.distributors,
+                replaceIn(current.pricesByItem, price.itemId, price.distributorId, price, byDistributor,
+                        p -> p.distributorId),
+                replaceIn(current.pricesByDistributor, price.distributorId, price.itemId, price, byItem,
+                        p -> p.itemId));
+    }
+
+    // Copy of one key's price array with the entry for other (or nothing, when price is null) swapped in
+    private static IntTable<Price[]> replaceIn(IntTable<Price[]> table, int key, int other, Price price,
+                                               Comparator<Price> order, Key<Price> otherKey) {
+        Price[] old = table.get(key);
+        List<Price> prices = new ArrayList<>();
+        if (old != null) {
+            for (Price p : old) {
+                if (otherKey.of(p) != other) prices.add(p);
+            }
+        }
+        if (price != null) prices.add(price);
+        if (prices.isEmpty()) return table.without(key);
+        Price[] updated = prices.toArray(new Price[0]);
+        Arrays.sort(updated, order);
+        return table.with(key, updated);
+    }
+
+    // Persistence
+
+    private void persist(Write write) {
+        synchronized (progress) {
+            enqueued++;
+        }
+        queue.add(write);
+    }
+
+    private void persistLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+                while (!apply(batch)) {
+                    // The database could not be reached; keep the order and try the same batch again
+                    Thread.sleep(1000);
+                }
+                boolean reload;
+                synchronized (progress) {
+                    persisted += batch.size();
+                    batches++;
+                    reload = divergent;
+                    progress.notifyAll();
+                }
+                batch.clear();
+                if (reload) diverged.run();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // False when the batch has to be retried. A statement SQLite rejects is logged, counted and skipped: the snapshot
+    // already holds the write, so the copies disagree until the store is reloaded, which diverged asks for.
+    private boolean apply(List<Write> batch) {
+        try (ConnectionPool.Lease lease = leases.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                for (Write write : batch) {
+                    try {
+                        PreparedStatement stmt = lease.prepare(write.sql);
+                        for (int i = 0; i < write.args.length; i++) {
+                            stmt.setObject(i + 1, write.args[i]);
+                        }
+                        stmt.executeUpdate();
+                    } catch (SQLException e) {
+                        recordFailure("Error persisting '" + write.sql + "': " + e.getMessage());
+                        synchronized (progress) {
+                            skipped++;
+                            divergent = true;
+                        }
+                    }
+                }
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException e) {
+            recordFailure("Error persisting a batch of " + batch.size() + " writes: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void recordFailure(String error) {
+        System.out.println(error);
+        synchronized (progress) {
+            failures++;
+            lastError = error;
+        }
+    }
+
+    // Waits until every write queued so far is in SQLite, or the timeout passes; true when it got there
+    boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (progress) {
+            long target = enqueued;
+            while (persisted < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                try {
+                    progress.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Reads
+
+    // A list route's rows: an id to page on, a name and, for catalog listings, a cost
+    interface Rows {
+        int size();
+
+        int id(int index);
+
+        String name(int index);
+
+        float cost(int index);
+
+        // Index of the first row with an id above after; rows are in id order
+        int indexAfter(int after);
+    }
+
+    static Rows items(Snapshot snapshot) {
+        return new TableRows<ItemRecord>(snapshot.items) {
+            @Override
+            public String name(int index) {
+                return table.valueAt(index).name;
+            }
+        };
+    }
+
+    static Rows distributors(Snapshot snapshot) {
+        return new TableRows<Distributor>(snapshot.distributors) {
+            @Override
+            public String name(int index) {
+                return table.valueAt(index).name;
+            }
+        };
+    }
+
+    // A distributor's catalog: item id, item name and cost
+    static Rows catalogOf(Snapshot snapshot, int distributorId) {
+        Price[] prices = snapshot.pricesByDistributor.get(distributorId);
+        return new PriceRows(prices) {
+            @Override
+            public int id(int index) {
+                return prices[index].itemId;
+            }
+
+            @Override
+            public String name(int index) {
+                return snapshot.items.get(prices[index].itemId).name;
+            }
+        };
+    }
+
+    // An item's offers: distributor id, distributor name and cost
+    static Rows offersFor(Snapshot snapshot, int itemId) {
+        Price[] prices = snapshot.pricesByItem.get(itemId);
+        return new PriceRows(prices) {
+            @Override
+            public int id(int index) {
+                return prices[index].distributorId;
+            }
+
+            @Override
+            public String name(int index) {
+                return snapshot.distributors.get(prices[index].distributorId).name;
+            }
+        };
+    }
+
+    private abstract static class TableRows<V> implements Rows {
+        final IntTable<V> table;
+
+        TableRows(IntTable<V> table) {
+            this.table = table;
+        }
+
+        @Override
+        public int size() {
+            return table.size();
+        }
+
+        @Override
+        public int id(int index) {
+            return table.keyAt(index);
+        }
+
+        @Override
+        public float cost(int index) {
+            return 0;
+        }
+
+        @Override
+        public int indexAfter(int after) {
+            return table.indexAfter(after);
+        }
+    }
+
+    // Price arrays are sorted on the id they are listed by, so the cursor is found by binary search
+    private abstract static class PriceRows implements Rows {
+        private final Price[] prices;
+
+        PriceRows(Price[] prices) {
+            this.prices = prices != null ? prices : new Price[0];
+        }
+
+        @Override
+        public int size() {
+            return prices.length;
+        }
+
+        @Override
+        public float cost(int index) {
+            return prices[index].cost;
+        }
+
+        @Override
+        public int indexAfter(int after) {
+            int low = 0;
+            int high = prices.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (id(mid) <= after) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Writes rows as the SQL list queries would: every field in order, or with a page, the page's projection of the
+    // rows after its cursor. Returns the number of rows written; nothing is opened for an empty result.
+    static int write(Rows rows, List<String> allFields, Page page, ResultSetJsonWriter.OutputOpener opener)
+            throws IOException {
+        List<String> fields = page != null ? page.columns(allFields, "id") : allFields;
+        int start = page != null ? rows.indexAfter(page.after) : 0;
+        int end = page != null && page.limit > 0 ? Math.min(rows.size(), start + page.limit) : rows.size();
+        if (start >= end) return 0;
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(opener.open(), StandardCharsets.UTF_8));
+        JsonWriter json = new JsonWriter(out).beginArray();
+        for (int i = start; i < end; i++) {
+            json.beginObject();
+            for (String field : fields) {
+                json.name(field);
+                switch (field) {
+                    case "id": json.value(rows.id(i)); break;
+                    case "name": json.value(rows.name(i)); break;
+                    default: json.value(rows.cost(i)); break;
+                }
+            }
+            json.endObject();
+            if (page != null) page.row(rows.id(i));
+        }
+        json.endArray();
+        out.flush();
+        return end - start;
+    }
+
+    static JSONArray toJson(Rows rows, List<String> fields) {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < rows.size(); i++) {
+            JSONObject row = new JSONObject();
+            for (String field : fields) {
+                switch (field) {
+                    case "id": row.put(field, rows.id(i)); break;
+                    case "name": row.put(field, rows.name(i)); break;
+                    default: row.put(field, rows.cost(i)); break;
+                }
+            }
+            array.add(row);
+        }
+        return array;
+    }
+
+    // True from a statement SQLite rejected until the next load
+    boolean isDiverged() {
+        synchronized (progress) {
+            return divergent;
+        }
+    }
+
+    JSONObject stats() {
+        Snapshot current = snapshot;
+        JSONObject stats = new JSONObject();
+        stats.put("version", current.version);
+        stats.put("items", current.items.size());
+        stats.put("inventory", current.inventory.size());
+        stats.put("distributors", current.distributors.size());
+        stats.put("priced_items", current.pricesByItem.size());
+        synchronized (progress) {
+            stats.put("queued", enqueued - persisted);
+            stats.put("persisted", persisted);
+            stats.put("batches", batches);
+            stats.put("failures", failures);
+            stats.put("skipped", skipped);
+            stats.put("diverged", divergent);
+            stats.put("last_error", lastError);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,95 @@
+package com.topbloc.codechallenge.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Keyset page over a list query: rows with an id greater than after, in id order, at most limit of them, projected to
+// the requested fields. The id is always selected because it is the cursor. After the query has run, nextAfter() is
+// the cursor for the following page, or null when this page was the last one.
+public final class Page {
+    public static final int defaultLimit = 100;
+    public static final int maxLimit = Integer.getInteger("api.page.maxLimit", 1000);
+
+    public final int after;
+    // 0 means no limit, for callers that only want a projection
+    public final int limit;
+    public final List<String> fields;
+
+    private int rows;
+    private int lastId;
+
+    public Page(int after, int limit, List<String> fields) {
+        if (limit < 0 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxLimit);
+        }
+        this.after = after;
+        this.limit = limit;
+        this.fields = fields != null ? Collections.unmodifiableList(new ArrayList<>(fields)) : Collections.emptyList();
+    }
+
+    // Builds the page from raw query parameters; any of them may be null. Throws IllegalArgumentException for values
+    // that don't parse, which callers turn into a 400.
+    public static Page fromParams(String after, String limit, String fields, boolean paged) {
+        List<String> fieldList = new ArrayList<>();
+        if (fields != null) {
+            for (String field : fields.split(",")) {
+                if (!field.trim().isEmpty()) fieldList.add(field.trim());
+            }
+        }
+        try {
+            int afterId = after != null ? Integer.parseInt(after) : 0;
+            int pageLimit = limit != null ? Integer.parseInt(limit) : paged ? defaultLimit : 0;
+            if (limit != null && pageLimit == 0) throw new IllegalArgumentException("limit must be between 1 and " + maxLimit);
+            return new Page(afterId, pageLimit, fieldList);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("after and limit must be integers");
+        }
+    }
+
+    public Integer nextAfter() {
+        return limit > 0 && rows == limit ? lastId : null;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    void row(int id) {
+        rows++;
+        lastId = id;
+    }
+
+    // Turns the requested fields into a SELECT list using the query's whitelist of field name to SQL expression
+    String selectList(Map<String, String> allowed, String idField) {
+        StringBuilder sql = new StringBuilder();
+        for (String column : columns(allowed.keySet(), idField)) {
+            if (sql.length() > 0) sql.append(", ");
+            sql.append(allowed.get(column)).append(" AS ").append(column);
+        }
+        return sql.toString();
+    }
+
+    // The fields to output, in order. The cursor field comes first whether or not it was asked for; unknown fields
+    // are rejected rather than ignored.
+    List<String> columns(Collection<String> allowed, String idField) {
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add(idField);
+        for (String field : fields.isEmpty() ? allowed : fields) {
+            if (!allowed.contains(field)) {
+                throw new IllegalArgumentException("Unknown field '" + field + "', expected one of " + allowed);
+            }
+            columns.add(field);
+        }
+        return new ArrayList<>(columns);
+    }
+
+    // SQLite treats a negative LIMIT as no limit
+    int sqlLimit() {
+        return limit > 0 ? limit : -1;
+    }
+}
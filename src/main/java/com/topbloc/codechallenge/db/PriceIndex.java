@@ -0,0 +1,182 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-item distributor offers sorted by cost, so the cheapest offer is the first element. Each item's offers are an
+// immutable array that writes replace wholesale, which keeps lookups lock-free.
+class PriceIndex {
+    private static final Offer[] noOffers = new Offer[0];
+    private static final Comparator<Offer> byCost = Comparator.<Offer>comparingDouble(offer -> offer.cost)
+            .thenComparingInt(offer -> offer.distributorId);
+
+    static final class Offer {
+        final int distributorId;
+        final String distributorName;
+        final float cost;
+        // The cost widened through the decimal it prints as, so 0.81f is summed as 0.81 and not 0.8100000023841858
+        private final double decimalCost;
+
+        Offer(int distributorId, String distributorName, float cost) {
+            this.distributorId = distributorId;
+            this.distributorName = distributorName;
+            this.cost = cost;
+            decimalCost = Double.parseDouble(Float.toString(cost));
+        }
+
+        double lineCost(int quantity) {
+            return decimalCost * quantity;
+        }
+    }
+
+    private final Map<Integer, Offer[]> offersByItem = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    synchronized void load(Map<Integer, List<Offer>> offers) {
+        offersByItem.clear();
+        offers.forEach(this::replace);
+        loaded = true;
+    }
+
+    synchronized void clear() {
+        loaded = false;
+        offersByItem.clear();
+    }
+
+    Offer[] offers(int itemId) {
+        return offersByItem.getOrDefault(itemId, noOffers);
+    }
+
+    Offer cheapest(int itemId) {
+        Offer[] offers = offers(itemId);
+        return offers.length > 0 ? offers[0] : null;
+    }
+
+    // Write path: the item's offers are now exactly these
+    synchronized void replace(int itemId, List<Offer> offers) {
+        if (offers.isEmpty()) {
+            offersByItem.remove(itemId);
+            return;
+        }
+        Offer[] sorted = offers.toArray(noOffers);
+        Arrays.sort(sorted, byCost);
+        offersByItem.put(itemId, sorted);
+    }
+
+    // Write path: a distributor is gone, so drop its offers from every item
+    synchronized void removeDistributor(int distributorId) {
+        for (Map.Entry<Integer, Offer[]> entry : offersByItem.entrySet()) {
+            Offer[] offers = entry.getValue();
+            if (Arrays.stream(offers).noneMatch(offer -> offer.distributorId == distributorId)) continue;
+            List<Offer> remaining = new ArrayList<>();
+            for (Offer offer : offers) {
+                if (offer.distributorId != distributorId) remaining.add(offer);
+            }
+            replace(entry.getKey(), remaining);
+        }
+    }
+
+    // Fills the quantity from the cheapest offers first, taking at most the available amount from each distributor.
+    // Distributors missing from the availability map are treated as having unlimited supply. With a fixed unit cost
+    // per distributor, cheapest-first is optimal.
+    JSONObject cheapestSplit(int itemId, int quantity, Map<Integer, Integer> available) {
+        JSONArray lines = new JSONArray();
+        int remaining = quantity;
+        // Unit costs are floats; totals are summed in double so a large order doesn't lose cents
+        double totalCost = 0;
+        for (Offer offer : offers(itemId)) {
+            if (remaining == 0) break;
+            int take = Math.min(remaining, available.getOrDefault(offer.distributorId, Integer.MAX_VALUE));
+            if (take <= 0) continue;
+            JSONObject line = new JSONObject();
+            line.put("distributor_id", offer.distributorId);
+            line.put("distributor_name", offer.distributorName);
+            line.put("unit_cost", offer.cost);
+            line.put("quantity", take);
+            double lineCost = offer.lineCost(take);
+            line.put("line_cost", lineCost);
+            lines.add(line);
+            totalCost += lineCost;
+            remaining -= take;
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("item_id", itemId);
+        result.put("quantity", quantity);
+        result.put("filled", quantity - remaining);
+        result.put("unfilled", remaining);
+        result.put("total_cost", totalCost);
+        result.put("lines", lines);
+        return result;
+    }
+
+    // Prices a whole reorder in one pass over the index: each item goes to its cheapest distributor, and the plan is
+    // also totalled per distributor so it can be turned straight into purchase orders
+    JSONObject restockPlan(Map<Integer, Integer> quantities) {
+        JSONArray lines = new JSONArray();
+        JSONArray unavailable = new JSONArray();
+        Map<Integer, JSONObject> byDistributor = new LinkedHashMap<>();
+        double totalCost = 0;
+
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            int itemId = entry.getKey();
+            int quantity = entry.getValue();
+            Offer offer = cheapest(itemId);
+            if (offer == null) {
+                unavailable.add(itemId);
+                continue;
+            }
+            double lineCost = offer.lineCost(quantity);
+            JSONObject line = new JSONObject();
+            line.put("item_id", itemId);
+            line.put("quantity", quantity);
+            line.put("distributor_id", offer.distributorId);
+            line.put("distributor_name", offer.distributorName);
+            line.put("unit_cost", offer.cost);
+            line.put("total_cost", lineCost);
+            lines.add(line);
+            totalCost += lineCost;
+
+            JSONObject order = byDistributor.computeIfAbsent(offer.distributorId, id -> {
+                JSONObject created = new JSONObject();
+                created.put("distributor_id", id);
+                created.put("distributor_name", offer.distributorName);
+                created.put("items", 0);
+                created.put("total_cost", 0d);
+                return created;
+            });
+            order.put("items", (int) order.get("items") + 1);
+            order.put("total_cost", (double) order.get("total_cost") + lineCost);
+        }
+
+        JSONArray orders = new JSONArray();
+        orders.addAll(byDistributor.values());
+
+        JSONObject plan = new JSONObject();
+        plan.put("lines", lines);
+        plan.put("by_distributor", orders);
+        plan.put("unavailable_item_ids", unavailable);
+        plan.put("total_cost", totalCost);
+        return plan;
+    }
+
+    JSONObject stats() {
+        JSONObject stats = new JSONObject();
+        stats.put("loaded", loaded);
+        stats.put("items", offersByItem.size());
+        stats.put("offers", offersByItem.values().stream().mapToInt(offers -> offers.length).sum());
+        return stats;
+    }
+}
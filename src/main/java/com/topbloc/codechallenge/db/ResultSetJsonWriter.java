@@ -0,0 +1,100 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.json.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+// Writes a ResultSet as a JSON array of objects straight to an output stream, one row at a time, reading columns by
+// index. Nothing is buffered beyond the writer's own buffer, so memory use does not depend on the number of rows.
+public class ResultSetJsonWriter {
+    private static final int bufferSize = 8192;
+
+    // Opens the destination stream. Called only once the first row is known to exist, so callers can still send an
+    // error status for empty results.
+    public interface OutputOpener {
+        OutputStream open() throws IOException;
+    }
+
+    // Optional hook that sees each row as it is written, e.g. to populate a cache on the way through
+    public interface RowListener {
+        void row(ResultSet rs) throws SQLException;
+    }
+
+    // Returns the number of rows written; when the result is empty the opener is never called and nothing is written
+    public static int write(ResultSet rs, OutputOpener opener) throws SQLException, IOException {
+        return write(rs, opener, null);
+    }
+
+    public static int write(ResultSet rs, OutputOpener opener, RowListener listener) throws SQLException, IOException {
+        if (!rs.next()) {
+            return 0;
+        }
+
+        ResultSetMetaData md = rs.getMetaData();
+        int columns = md.getColumnCount();
+        String[] keys = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            keys[i] = md.getColumnLabel(i + 1);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(opener.open(), StandardCharsets.UTF_8), bufferSize);
+        JsonWriter json = new JsonWriter(out);
+        int rows = 0;
+        json.beginArray();
+        do {
+            rows++;
+            json.beginObject();
+            for (int i = 0; i < columns; i++) {
+                json.name(keys[i]);
+                writeValue(json, rs, md, i + 1);
+            }
+            json.endObject();
+            if (listener != null) listener.row(rs);
+        } while (rs.next());
+        json.endArray();
+        out.flush();
+        return rows;
+    }
+
+    // Reads each cell through the primitive getter for its storage class rather than getObject, so numbers are
+    // written without boxing. SQLite types values per row, and the driver reports the current row's type.
+    private static void writeValue(JsonWriter json, ResultSet rs, ResultSetMetaData md, int column)
+            throws SQLException, IOException {
+        switch (md.getColumnType(column)) {
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                long longValue = rs.getLong(column);
+                if (rs.wasNull()) json.nullValue(); else json.value(longValue);
+                break;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                double doubleValue = rs.getDouble(column);
+                if (rs.wasNull()) json.nullValue(); else json.value(doubleValue);
+                break;
+            case Types.VARCHAR:
+                json.value(rs.getString(column));
+                break;
+            default:
+                Object value = rs.getObject(column);
+                if (value == null) {
+                    json.nullValue();
+                } else if (value instanceof Number || value instanceof Boolean) {
+                    json.rawValue(value.toString());
+                } else {
+                    json.value(value.toString());
+                }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+// Versioned, in-place schema changes on top of applySchema. The database's PRAGMA user_version records the last
+// migration applied; each migration runs in its own transaction together with the version bump, so a database is
+// never left half-migrated. Append new migrations to the end of the list and never edit an applied one.
+class SchemaMigrator {
+    static final class Migration {
+        final int version;
+        final String description;
+        final List<String> statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = Arrays.asList(statements);
+        }
+    }
+
+    static final List<Migration> migrations = Arrays.asList(
+            // Duplicate (distributor, item) pairs keep the most recently added price; how many were dropped is logged
+            new Migration(1, "Unique (distributor, item) on distributor_prices",
+                    "DELETE FROM distributor_prices WHERE id NOT IN " +
+                            "(SELECT MAX(id) FROM distributor_prices GROUP BY distributor, item)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS distributor_prices_distributor_item " +
+                            "ON distributor_prices (distributor, item)"),
+            // Covers the per-item offer lookups, already in cheapest-first order
+            new Migration(2, "Covering (item, cost, distributor) index on distributor_prices",
+                    "CREATE INDEX IF NOT EXISTS distributor_prices_item_cost " +
+                            "ON distributor_prices (item, cost, distributor)"),
+            new Migration(3, "Planner statistics",
+                    "ANALYZE"));
+
+    static int latestVersion() {
+        return migrations.get(migrations.size() - 1).version;
+    }
+
+    static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Brings the database up to the latest version and returns the number of migrations applied. A database that
+    // has no tables yet is left alone; resetDatabase migrates once applySchema has created them.
+    static int migrate(Connection conn) throws SQLException {
+        if (!hasTable(conn, "distributor_prices")) return 0;
+
+        int version = currentVersion(conn);
+        int applied = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (Migration migration : migrations) {
+                if (migration.version <= version) continue;
+                System.out.println("Applying migration " + migration.version + ": " + migration.description);
+                try {
+                    for (String sql : migration.statements) {
+                        // Rows a migration deletes or rewrites are data loss an operator should be able to trace.
+                        // total_changes() only counts row changes, unlike the update count, which DDL leaves stale.
+                        long before = totalChanges(stmt);
+                        stmt.execute(sql);
+                        long changed = totalChanges(stmt) - before;
+                        if (changed > 0) {
+                            System.out.println("Migration " + migration.version + " changed " + changed +
+                                    " row(s): " + sql);
+                        }
+                    }
+                    // PRAGMA does not take bind parameters; the version is our own constant
+                    stmt.execute("PRAGMA user_version = " + migration.version);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + migration.version + " failed: " + e.getMessage(), e);
+                }
+                applied++;
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return applied;
+    }
+
+    private static long totalChanges(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT total_changes()")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static boolean hasTable(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(null, null, table, new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    static JSONObject status(Connection conn) throws SQLException {
+        int version = currentVersion(conn);
+        JSONArray history = new JSONArray();
+        for (Migration migration : migrations) {
+            JSONObject entry = new JSONObject();
+            entry.put("version", migration.version);
+            entry.put("description", migration.description);
+            entry.put("applied", migration.version <= version);
+            history.add(entry);
+        }
+        JSONObject status = new JSONObject();
+        status.put("version", version);
+        status.put("latest_version", latestVersion());
+        status.put("migrations", history);
+        return status;
+    }
+}
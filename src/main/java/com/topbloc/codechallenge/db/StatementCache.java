@@ -0,0 +1,81 @@
+package com.topbloc.codechallenge.db;
+
+import com.topbloc.codechallenge.metrics.InstrumentedStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of prepared statements for a single pooled connection, keyed by SQL text. A connection is only ever
+// used by the thread holding its lease, so the cache itself needs no locking; the counters are volatile so the
+// stats endpoint can read them from another thread.
+class StatementCache {
+    // Per-statement timings and row counts for /metrics; the wrapper is created once per cached statement
+    private static final boolean instrumented = Boolean.parseBoolean(System.getProperty("metrics.sql.enabled", "true"));
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long evictions;
+
+    StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity) return false;
+                evictions++;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    // Returns a ready-to-bind statement for the SQL. The statement belongs to the cache - callers must not close it,
+    // but must close any ResultSet they open from it.
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            statement.clearParameters();
+            return statement;
+        }
+        misses++;
+        statement = connection.prepareStatement(sql);
+        if (instrumented) statement = InstrumentedStatement.wrap(sql, statement);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.topbloc.codechallenge.db;
+
+import org.json.simple.JSONObject;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Incrementally maintained stock-status buckets over the whole inventory, so the out-of-stock, low-stock and
+// overstock routes cost O(result) instead of a table scan. Each bucket is ordered by item id.
+//
+// The buckets follow the same predicates the SQL used, so an item can sit in more than one of them: an empty item
+// is both out of stock and (when it has capacity) low on stock. "normal" holds everything in none of the others.
+class StockIndex {
+    enum Bucket { OUT, LOW, NORMAL, OVER }
+
+    private final Map<Integer, InventoryRecord> rows = new HashMap<>();
+    private final Map<Bucket, ConcurrentSkipListMap<Integer, InventoryRecord>> buckets = new HashMap<>();
+    private volatile double lowStockThreshold;
+    private volatile boolean loaded;
+
+    StockIndex(double lowStockThreshold) {
+        this.lowStockThreshold = lowStockThreshold;
+        for (Bucket bucket : Bucket.values()) {
+            buckets.put(bucket, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    synchronized void load(List<InventoryRecord> records) {
+        clear();
+        records.forEach(this::place);
+        loaded = true;
+    }
+
+    synchronized void clear() {
+        loaded = false;
+        rows.clear();
+        buckets.values().forEach(Map::clear);
+    }
+
+    // Reads are lock-free: each bucket is a concurrent map and a write moves an item between buckets one at a time
+    Collection<InventoryRecord> bucket(Bucket bucket) {
+        return buckets.get(bucket).values();
+    }
+
+    synchronized void put(InventoryRecord record) {
+        if (!loaded) return;
+        unplace(record.id);
+        place(record);
+    }
+
+    synchronized void remove(int itemId) {
+        if (!loaded) return;
+        unplace(itemId);
+    }
+
+    double lowStockThreshold() {
+        return lowStockThreshold;
+    }
+
+    // Changing the threshold only moves items in and out of the low bucket, but every row has to be re-checked
+    synchronized void setLowStockThreshold(double threshold) {
+        lowStockThreshold = threshold;
+        if (!loaded) return;
+        for (InventoryRecord record : rows.values().toArray(new InventoryRecord[0])) {
+            unplace(record.id);
+            place(record);
+        }
+    }
+
+    private void place(InventoryRecord record) {
+        rows.put(record.id, record);
+        boolean out = record.stock == 0;
+        boolean over = record.stock > record.capacity;
+        // capacity 0 makes the ratio undefined, which the old SQL (x / 0 = NULL) never counted as low
+        boolean low = record.capacity != 0 && (double) record.stock / record.capacity < lowStockThreshold;
+        if (out) buckets.get(Bucket.OUT).put(record.id, record);
+        if (over) buckets.get(Bucket.OVER).put(record.id, record);
+        if (low) buckets.get(Bucket.LOW).put(record.id, record);
+        if (!out && !over && !low) buckets.get(Bucket.NORMAL).put(record.id, record);
+    }
+
+    private void unplace(int itemId) {
+        if (rows.remove(itemId) == null) return;
+        buckets.values().forEach(bucket -> bucket.remove(itemId));
+    }
+
+    JSONObject stats() {
+        JSONObject stats = new JSONObject();
+        stats.put("loaded", loaded);
+        stats.put("low_stock_threshold", lowStockThreshold);
+        for (Bucket bucket : Bucket.values()) {
+            stats.put(bucket.name().toLowerCase(), buckets.get(bucket).size());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,7 @@
+package com.topbloc.codechallenge.json;
+
+// Reads one value of type T from the reader's current position. Request types expose a static read(JsonReader)
+// method so they can be passed as JsonDecoder method references.
+public interface JsonDecoder<T> {
+    T decode(JsonReader reader);
+}
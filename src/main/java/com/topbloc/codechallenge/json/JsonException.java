@@ -0,0 +1,8 @@
+package com.topbloc.codechallenge.json;
+
+// Malformed JSON, or JSON of the wrong shape for what is being decoded. Routes answer it with a 400.
+public class JsonException extends IllegalArgumentException {
+    public JsonException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,395 @@
+package com.topbloc.codechallenge.json;
+
+// Pull parser over a JSON document held in a String. Values are read straight into primitives, so decoding a request
+// body allocates nothing beyond the strings it actually keeps: no token objects, no maps and no boxed numbers.
+// Object field names can be matched in place against a fixed list with nextName(String[]).
+public final class JsonReader {
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private static final int maxDepth = 64;
+    // Exact powers of ten; a double holds all of these without rounding
+    private static final double[] powersOfTen = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final String in;
+    private final int length;
+    private int pos;
+    private int depth;
+    // Bit d-1 set: the container at depth d has not had an element yet, so no comma is expected before the next one
+    private long first;
+    private boolean afterName;
+    private boolean rootRead;
+
+    public JsonReader(String in) {
+        this.in = in != null ? in : "";
+        this.length = this.in.length();
+    }
+
+    // Decodes a whole document, rejecting anything after the value
+    public static <T> T decode(String json, JsonDecoder<T> decoder) {
+        JsonReader reader = new JsonReader(json);
+        T value = decoder.decode(reader);
+        reader.endDocument();
+        return value;
+    }
+
+    public void beginObject() {
+        beforeValue();
+        skipWhitespace();
+        expect('{');
+        push();
+    }
+
+    public void endObject() {
+        close('}');
+    }
+
+    public void beginArray() {
+        beforeValue();
+        skipWhitespace();
+        expect('[');
+        push();
+    }
+
+    public void endArray() {
+        close(']');
+    }
+
+    // True while the current object or array has more elements
+    public boolean hasNext() {
+        int c = peekSignificant();
+        return c != '}' && c != ']' && c != -1;
+    }
+
+    public Token peek() {
+        int c = peekSignificant();
+        switch (c) {
+            case -1: return Token.END_DOCUMENT;
+            case '{': return Token.BEGIN_OBJECT;
+            case '}': return Token.END_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case ']': return Token.END_ARRAY;
+            case '"': return Token.STRING;
+            case 't':
+            case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            default: return Token.NUMBER;
+        }
+    }
+
+    public String nextName() {
+        beforeName();
+        String name = readString();
+        afterNameSeparator();
+        return name;
+    }
+
+    // Matches the next field name against names and returns its index, or -1 for a name not in the list. Names
+    // without escapes are compared in place, so known fields cost no allocation.
+    public int nextName(String[] names) {
+        beforeName();
+        skipWhitespace();
+        expect('"');
+        int start = pos;
+        int end = start;
+        while (end < length && in.charAt(end) != '"' && in.charAt(end) != '\\') end++;
+        int match = -1;
+        if (end < length && in.charAt(end) == '"') {
+            int len = end - start;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].length() == len && in.regionMatches(start, names[i], 0, len)) {
+                    match = i;
+                    break;
+                }
+            }
+            pos = end + 1;
+        } else {
+            pos = start - 1;
+            String name = readString();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    match = i;
+                    break;
+                }
+            }
+        }
+        afterNameSeparator();
+        return match;
+    }
+
+    public String nextString() {
+        beforeValue();
+        return readString();
+    }
+
+    public boolean nextBoolean() {
+        beforeValue();
+        skipWhitespace();
+        if (in.startsWith("true", pos)) {
+            pos += 4;
+            return true;
+        }
+        if (in.startsWith("false", pos)) {
+            pos += 5;
+            return false;
+        }
+        throw error("Expected a boolean");
+    }
+
+    public void nextNull() {
+        beforeValue();
+        skipWhitespace();
+        if (!in.startsWith("null", pos)) throw error("Expected null");
+        pos += 4;
+    }
+
+    // Consumes a null if that is what comes next; request fields treat an explicit null like an absent field
+    public boolean nextIfNull() {
+        if (peek() != Token.NULL) return false;
+        nextNull();
+        return true;
+    }
+
+    public long nextLong() {
+        beforeValue();
+        skipWhitespace();
+        int start = pos;
+        boolean negative = pos < length && in.charAt(pos) == '-';
+        if (negative) pos++;
+        int digitsStart = pos;
+        long value = 0;
+        while (pos < length) {
+            char c = in.charAt(pos);
+            if (c < '0' || c > '9') break;
+            int digit = c - '0';
+            // Accumulate negatively so Long.MIN_VALUE fits
+            if (value < (Long.MIN_VALUE + digit) / 10) throw errorAt(start, "Integer out of range");
+            value = value * 10 - digit;
+            pos++;
+        }
+        if (pos == digitsStart) throw errorAt(start, "Expected an integer");
+        if (pos < length && (in.charAt(pos) == '.' || in.charAt(pos) == 'e' || in.charAt(pos) == 'E')) {
+            throw errorAt(start, "Expected an integer");
+        }
+        if (!negative && value == Long.MIN_VALUE) throw errorAt(start, "Integer out of range");
+        return negative ? value : -value;
+    }
+
+    public int nextInt() {
+        int start = pos;
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw errorAt(start, "Integer out of range");
+        return (int) value;
+    }
+
+    // Plain decimals with up to 15 significant digits are converted exactly as mantissa / 10^scale, which is
+    // correctly rounded since both operands are exact doubles; anything else goes through Double.parseDouble
+    public double nextDouble() {
+        beforeValue();
+        skipWhitespace();
+        int start = pos;
+        if (pos < length && in.charAt(pos) == '-') pos++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        boolean simple = true;
+        while (pos < length) {
+            char c = in.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) scale++;
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c == 'e' || c == 'E' || c == '+' || (c == '-' && pos > start)) {
+                simple = false;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (digits == 0) throw errorAt(start, "Expected a number");
+        if (simple && digits <= 15 && scale != 0) {
+            double value = scale > 0 ? mantissa / powersOfTen[scale] : mantissa;
+            return in.charAt(start) == '-' ? -value : value;
+        }
+        try {
+            return Double.parseDouble(in.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw errorAt(start, "Expected a number");
+        }
+    }
+
+    // Skips the next value, whatever it is, including nested objects and arrays
+    public void skipValue() {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING:
+                nextString();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            case NUMBER:
+                nextDouble();
+                break;
+            default:
+                throw error("Unexpected end of value");
+        }
+    }
+
+    // Only whitespace may follow the top-level value
+    public void endDocument() {
+        skipWhitespace();
+        if (pos < length) throw error("Unexpected content after the JSON value");
+    }
+
+    private void push() {
+        if (depth == maxDepth) throw error("JSON nested too deeply");
+        first |= 1L << depth;
+        depth++;
+    }
+
+    private void close(char bracket) {
+        skipWhitespace();
+        expect(bracket);
+        depth--;
+        first &= ~(1L << depth);
+    }
+
+    // Consumes the comma before an element, unless it is the first one in its container or follows a field name
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) {
+            if (rootRead) throw error("Unexpected content after the JSON value");
+            rootRead = true;
+            return;
+        }
+        separator();
+    }
+
+    private void beforeName() {
+        if (depth == 0 || afterName) throw error("Expected a value, not a field name");
+        separator();
+    }
+
+    private void separator() {
+        long bit = 1L << (depth - 1);
+        if ((first & bit) != 0) {
+            first &= ~bit;
+        } else {
+            skipWhitespace();
+            expect(',');
+        }
+    }
+
+    private void afterNameSeparator() {
+        skipWhitespace();
+        expect(':');
+        afterName = true;
+    }
+
+    // Next significant character, looking past a pending comma without consuming anything
+    private int peekSignificant() {
+        int p = skip(pos);
+        if (p < length && in.charAt(p) == ',' && depth > 0 && !afterName && (first & (1L << (depth - 1))) == 0) {
+            p = skip(p + 1);
+        }
+        return p < length ? in.charAt(p) : -1;
+    }
+
+    private int skip(int p) {
+        while (p < length) {
+            char c = in.charAt(p);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+            p++;
+        }
+        return p;
+    }
+
+    private void skipWhitespace() {
+        pos = skip(pos);
+    }
+
+    private void expect(char c) {
+        if (pos >= length || in.charAt(pos) != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    private String readString() {
+        skipWhitespace();
+        expect('"');
+        int start = pos;
+        while (pos < length) {
+            char c = in.charAt(pos);
+            if (c == '"') return in.substring(start, pos++);
+            if (c == '\\') break;
+            if (c < 0x20) throw error("Unescaped control character in string");
+            pos++;
+        }
+
+        StringBuilder sb = new StringBuilder(pos - start + 16).append(in, start, pos);
+        while (pos < length) {
+            char c = in.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c < 0x20) throw errorAt(pos - 1, "Unescaped control character in string");
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= length) break;
+            char escaped = in.charAt(pos++);
+            switch (escaped) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > length) throw error("Truncated unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw errorAt(pos - 1, "Invalid escape character");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private JsonException error(String message) {
+        return errorAt(pos, message);
+    }
+
+    private JsonException errorAt(int offset, String message) {
+        return new JsonException(message + " at offset " + offset);
+    }
+}
@@ -0,0 +1,183 @@
+package com.topbloc.codechallenge.json;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Streaming JSON writer. Values go to the underlying Writer as they are produced, numbers are formatted from
+// primitives without boxing, and commas are tracked per nesting level, so serializing a response builds no maps or
+// intermediate strings. The caller owns the Writer and flushes or closes it.
+public final class JsonWriter {
+    private static final int maxDepth = 64;
+    private static final char[] hex = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private final char[] digits = new char[20];
+    private int depth;
+    // Bit d-1 set: the container at depth d has had no elements yet, so the next one needs no comma
+    private long first;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        pop();
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        pop();
+        out.write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (depth == 0 || afterName) throw new IllegalStateException("A field name must be inside an object");
+        separator();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value));
+            return this;
+        }
+        int pos = digits.length;
+        long v = Math.abs(value);
+        do {
+            digits[--pos] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) digits[--pos] = '-';
+        out.write(digits, pos, digits.length - pos);
+        return this;
+    }
+
+    // Same text as Double.toString, which is what json-simple wrote; NaN and infinities have no JSON form
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return nullValue();
+        if (value == (long) value && Math.abs(value) < 1e7) {
+            value((long) value);
+            out.write(".0");
+            return this;
+        }
+        beforeValue();
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) return nullValue();
+        if (value == (long) value && Math.abs(value) < 1e7f) {
+            value((long) value);
+            out.write(".0");
+            return this;
+        }
+        beforeValue();
+        out.write(Float.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    // Writes text that is already valid JSON, such as a pre-rendered value, as the next value
+    public JsonWriter rawValue(String json) throws IOException {
+        beforeValue();
+        out.write(json);
+        return this;
+    }
+
+    private void push() {
+        if (depth == maxDepth) throw new IllegalStateException("JSON nested too deeply");
+        first |= 1L << depth;
+        depth++;
+    }
+
+    private void pop() {
+        if (depth == 0 || afterName) throw new IllegalStateException("No open object or array to close");
+        depth--;
+        first &= ~(1L << depth);
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            separator();
+        }
+    }
+
+    private void separator() throws IOException {
+        long bit = 1L << (depth - 1);
+        if ((first & bit) != 0) {
+            first &= ~bit;
+        } else {
+            out.write(',');
+        }
+    }
+
+    // Runs of plain characters are written as one slice of the string rather than char by char
+    private void string(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            if (i > start) out.write(value, start, i - start);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                case '\b': out.write("\\b"); break;
+                case '\f': out.write("\\f"); break;
+                default:
+                    out.write("\\u00");
+                    out.write(hex[c >> 4]);
+                    out.write(hex[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        if (length > start) out.write(value, start, length - start);
+        out.write('"');
+    }
+}
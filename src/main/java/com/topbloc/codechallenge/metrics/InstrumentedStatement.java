@@ -0,0 +1,780 @@
+package com.topbloc.codechallenge.metrics;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Calendar;
+
+// Wraps a PreparedStatement so each execution is recorded against its SQL text. Updates are timed around the execute
+// call and count the rows they changed. A query is recorded when its ResultSet (see InstrumentedResultSet) is
+// exhausted or closed, with the time from execute to then and the rows stepped through, so a streamed scan shows
+// its full cost; the slow-query check runs at that point too. A query whose ResultSet is still open when the
+// statement runs again or is closed is recorded then.
+//
+// The wrapper is created once per cached statement and forwards with plain virtual calls, so the per-execution cost
+// is a couple of LongAdder updates and a counter per row. Bound parameters are only remembered while the slow-query
+// log is on.
+public final class InstrumentedStatement implements PreparedStatement {
+    private final String sql;
+    private final PreparedStatement delegate;
+    private final Metrics.Series series;
+    // Indexed by parameter position, so slot 0 stays empty
+    private Object[] params;
+    // The last query's ResultSet, until it has been recorded
+    private InstrumentedResultSet open;
+
+    private InstrumentedStatement(String sql, PreparedStatement delegate, Metrics.Series series) {
+        this.sql = sql;
+        this.delegate = delegate;
+        this.series = series;
+    }
+
+    public static PreparedStatement wrap(String sql, PreparedStatement statement) {
+        return new InstrumentedStatement(sql, statement, Metrics.statement(sql));
+    }
+
+    // For executeBatch the parameters are the ones bound for the last row of the batch
+    private void remember(int index, Object value) {
+        if (!SlowQueryLog.enabled()) return;
+        if (params == null || params.length <= index) {
+            params = params == null ? new Object[index + 1] : Arrays.copyOf(params, index + 1);
+        }
+        params[index] = value;
+    }
+
+    private void failed(long start) {
+        series.error();
+        series.record(System.nanoTime() - start);
+    }
+
+    private void finished(long nanos, long rows) {
+        finished(nanos, rows, params);
+    }
+
+    private void finished(long nanos, long rows, Object[] bound) {
+        series.record(nanos);
+        series.rows(rows);
+        if (SlowQueryLog.isSlow(nanos)) {
+            try {
+                SlowQueryLog.record(delegate.getConnection(), sql, nanos, rows, bound);
+            } catch (SQLException e) {
+                System.out.println("Error capturing slow query: " + e.getMessage());
+            }
+        }
+    }
+
+    void queryFinished(InstrumentedResultSet resultSet, long nanos, long rows, Object[] bound) {
+        if (open == resultSet) open = null;
+        finished(nanos, rows, bound);
+    }
+
+    void queryFailed(InstrumentedResultSet resultSet, long start) {
+        if (open == resultSet) open = null;
+        failed(start);
+    }
+
+    // The parameters a query ran with, kept with its ResultSet since the next execution may rebind them before the
+    // query is recorded
+    private ResultSet query(ResultSet resultSet, long start) {
+        Object[] bound = params != null && SlowQueryLog.enabled() ? params.clone() : null;
+        open = new InstrumentedResultSet(this, resultSet, start, bound);
+        return open;
+    }
+
+    // A ResultSet the caller left open is recorded as it stands before the driver discards it
+    private void finishOpenQuery() {
+        if (open != null) open.finish();
+    }
+
+    private static long rows(int[] counts) {
+        long rows = 0;
+        for (int count : counts) rows += Math.max(0, count);
+        return rows;
+    }
+
+    // Executions
+    @Override
+    public int[] executeBatch() throws SQLException {
+        long start = System.nanoTime();
+        int[] result;
+        try {
+            result = delegate.executeBatch();
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, rows(result));
+        return result;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        finishOpenQuery();
+        long start = System.nanoTime();
+        ResultSet result;
+        try {
+            result = delegate.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        return query(result, start);
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        finishOpenQuery();
+        long start = System.nanoTime();
+        ResultSet result;
+        try {
+            result = delegate.executeQuery(sql);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        return query(result, start);
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        long start = System.nanoTime();
+        int result;
+        try {
+            result = delegate.executeUpdate();
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, Math.max(0, result));
+        return result;
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long start = System.nanoTime();
+        int result;
+        try {
+            result = delegate.executeUpdate(sql, columnIndexes);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, Math.max(0, result));
+        return result;
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        long start = System.nanoTime();
+        int result;
+        try {
+            result = delegate.executeUpdate(sql, columnNames);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, Math.max(0, result));
+        return result;
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = System.nanoTime();
+        int result;
+        try {
+            result = delegate.executeUpdate(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, Math.max(0, result));
+        return result;
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        long start = System.nanoTime();
+        int result;
+        try {
+            result = delegate.executeUpdate(sql);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, Math.max(0, result));
+        return result;
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        long start = System.nanoTime();
+        boolean result;
+        try {
+            result = delegate.execute();
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        long start = System.nanoTime();
+        boolean result;
+        try {
+            result = delegate.execute(sql, columnIndexes);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        long start = System.nanoTime();
+        boolean result;
+        try {
+            result = delegate.execute(sql, columnNames);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        long start = System.nanoTime();
+        boolean result;
+        try {
+            result = delegate.execute(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        long start = System.nanoTime();
+        boolean result;
+        try {
+            result = delegate.execute(sql);
+        } catch (SQLException | RuntimeException e) {
+            failed(start);
+            throw e;
+        }
+        finished(System.nanoTime() - start, 0);
+        return result;
+    }
+
+    // Parameters
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setArray(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setAsciiStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBigDecimal(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        remember(parameterIndex, inputStream);
+        delegate.setBlob(parameterIndex, inputStream, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        remember(parameterIndex, inputStream);
+        delegate.setBlob(parameterIndex, inputStream);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBlob(parameterIndex, x);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBoolean(parameterIndex, x);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setByte(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setBytes(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob reader) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setDate(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setDate(parameterIndex, x);
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setDouble(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setFloat(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setInt(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setNCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setNCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setNClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setNClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob reader) throws SQLException {
+        remember(parameterIndex, reader);
+        delegate.setNClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        remember(parameterIndex, value);
+        delegate.setNString(parameterIndex, value);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        remember(parameterIndex, null);
+        delegate.setNull(parameterIndex, sqlType, typeName);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        remember(parameterIndex, null);
+        delegate.setNull(parameterIndex, sqlType);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setObject(parameterIndex, x);
+    }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setRef(parameterIndex, x);
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setRowId(parameterIndex, x);
+    }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setSQLXML(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setShort(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setString(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setTime(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setTime(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setTimestamp(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setTimestamp(parameterIndex, x);
+    }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setURL(parameterIndex, x);
+    }
+
+    @Override
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        remember(parameterIndex, x);
+        delegate.setUnicodeStream(parameterIndex, x, length);
+    }
+
+    // Everything else is forwarded as is
+
+    @Override
+    public void addBatch() throws SQLException {
+        delegate.addBatch();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        delegate.addBatch(sql);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate.cancel();
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        delegate.clearBatch();
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        if (params != null) Arrays.fill(params, null);
+        delegate.clearParameters();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate.clearWarnings();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate.closeOnCompletion();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        finishOpenQuery();
+        delegate.close();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return delegate.getConnection();
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate.getFetchDirection();
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return delegate.getGeneratedKeys();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate.getMaxFieldSize();
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate.getMaxRows();
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return delegate.getMetaData();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return delegate.getMoreResults();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return delegate.getMoreResults(current);
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        return delegate.getParameterMetaData();
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate.getQueryTimeout();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate.getResultSetHoldability();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate.getResultSetType();
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return delegate.getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate.getUpdateCount();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate.getWarnings();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate.isCloseOnCompletion();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate.isPoolable();
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate.setCursorName(name);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate.setPoolable(poolable);
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+    }
+}
@@ -0,0 +1,75 @@
+package com.topbloc.codechallenge.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// HDR-style log-linear histogram of durations in microseconds. Values below 16us get a bucket each; above that every
+// power of two is split into 16 sub-buckets, so any recorded value is within 1/16 (6.25%) of its bucket. Recording is
+// a couple of shifts and one atomic increment, with no locking and no allocation.
+public final class LatencyHistogram {
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+    // Up to 2^40us (about 12 days); anything longer lands in the last bucket
+    private static final int maxExponent = 40;
+    private static final int bucketCount = subBuckets + (maxExponent - subBucketBits + 1) * subBuckets;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketIndex(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < subBuckets) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > maxExponent) return bucketCount - 1;
+        int sub = (int) (micros >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return subBuckets + (exponent - subBucketBits) * subBuckets + sub;
+    }
+
+    // Smallest value that falls in the bucket
+    static long bucketLowerBound(int index) {
+        if (index < subBuckets) return index;
+        int exponent = (index - subBuckets) / subBuckets + subBucketBits;
+        int sub = (index - subBuckets) % subBuckets;
+        return (long) (subBuckets + sub) << (exponent - subBucketBits);
+    }
+
+    static long bucketUpperBound(int index) {
+        return index + 1 < bucketCount ? bucketLowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double sumSeconds() {
+        return sumMicros.sum() / 1_000_000.0;
+    }
+
+    // Value at the quantile (0..1) in seconds, reported as the upper bound of the bucket it falls in. Counts are read
+    // bucket by bucket while writers carry on, so the result is approximate under load, which is fine for monitoring.
+    public double quantileSeconds(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return bucketUpperBound(i) / 1_000_000.0;
+        }
+        return bucketUpperBound(bucketCount - 1) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,118 @@
+package com.topbloc.codechallenge.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide registry of request and SQL statement metrics, rendered in the Prometheus text format. Series are
+// created on first use and then only touched through LongAdders and histograms, so the hot path takes no locks.
+public final class Metrics {
+    private static final double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+
+    // Counters and a latency histogram for one route or one statement
+    public static final class Series {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder clientErrors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        public void record(long nanos) {
+            count.increment();
+            latency.recordNanos(nanos);
+        }
+
+        public void error() {
+            errors.increment();
+        }
+
+        public void clientError() {
+            clientErrors.increment();
+        }
+
+        public void rows(long rows) {
+            this.rows.add(rows);
+        }
+    }
+
+    private static final Map<String, Series> routes = new ConcurrentHashMap<>();
+    private static final Map<String, Series> statements = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    // Keyed by method and path pattern rather than the request path, so /item/1 and /item/2 share a series
+    public static Series route(String method, String path) {
+        return routes.computeIfAbsent(method + " " + path, key -> new Series());
+    }
+
+    public static Series statement(String sql) {
+        Series series = statements.get(sql);
+        return series != null ? series : statements.computeIfAbsent(sql, key -> new Series());
+    }
+
+    public static String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        Map<String, Series> routeSeries = new TreeMap<>(routes);
+        header(out, "http_requests_total", "counter", "Requests handled, per route");
+        routeSeries.forEach((key, series) -> sample(out, "http_requests_total", routeLabels(key), series.count.sum()));
+        header(out, "http_request_errors_total", "counter", "Requests that failed with a 5xx status or an exception");
+        routeSeries.forEach((key, series) -> sample(out, "http_request_errors_total", routeLabels(key), series.errors.sum()));
+        header(out, "http_request_client_errors_total", "counter", "Requests answered with a 4xx status");
+        routeSeries.forEach((key, series) ->
+                sample(out, "http_request_client_errors_total", routeLabels(key), series.clientErrors.sum()));
+        header(out, "http_request_duration_seconds", "summary", "Time spent in the route handler");
+        routeSeries.forEach((key, series) -> summary(out, "http_request_duration_seconds", routeLabels(key), series));
+
+        Map<String, Series> statementSeries = new TreeMap<>(statements);
+        header(out, "sql_statement_executions_total", "counter", "Executions, per SQL statement");
+        statementSeries.forEach((sql, series) ->
+                sample(out, "sql_statement_executions_total", statementLabel(sql), series.count.sum()));
+        header(out, "sql_statement_errors_total", "counter", "Executions that threw, per SQL statement");
+        statementSeries.forEach((sql, series) ->
+                sample(out, "sql_statement_errors_total", statementLabel(sql), series.errors.sum()));
+        header(out, "sql_statement_rows_total", "counter", "Rows returned by queries and changed by updates");
+        statementSeries.forEach((sql, series) ->
+                sample(out, "sql_statement_rows_total", statementLabel(sql), series.rows.sum()));
+        header(out, "sql_statement_duration_seconds", "summary",
+                "Execution time; for queries, from execute until the ResultSet is exhausted or closed");
+        statementSeries.forEach((sql, series) -> summary(out, "sql_statement_duration_seconds", statementLabel(sql), series));
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ").append(format(value)).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Series series) {
+        for (double quantile : quantiles) {
+            sample(out, name, labels + ",quantile=\"" + quantile + "\"", series.latency.quantileSeconds(quantile));
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(format(series.latency.sumSeconds())).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(series.latency.count()).append('\n');
+    }
+
+    private static String routeLabels(String key) {
+        int space = key.indexOf(' ');
+        return "method=\"" + escape(key.substring(0, space)) + "\",route=\"" + escape(key.substring(space + 1)) + "\"";
+    }
+
+    private static String statementLabel(String sql) {
+        return "statement=\"" + escape(sql.trim().replaceAll("\\s+", " ")) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+}
@@ -0,0 +1,177 @@
+package com.topbloc.codechallenge.metrics;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Opt-in log of statements slower than a threshold (db.slowQuery.thresholdMillis, off by default), each with its
+// bound parameters and EXPLAIN QUERY PLAN output, kept in a ring buffer of the most recent db.slowQuery.capacity
+// entries. It hangs off InstrumentedStatement, so it needs metrics.sql.enabled (the default).
+//
+// A query is checked against the threshold when its ResultSet is exhausted or closed, with the time of the whole
+// scan and the rows it returned, so a full table scan streamed row by row is caught even though its first row comes
+// back quickly. The plan is taken on the connection that ran the statement at that point, so it reflects that
+// connection's schema and statistics. Plans are reused per SQL text for a minute so a statement that is slow on
+// every call is not explained on every call.
+public final class SlowQueryLog {
+    private static final long planTtlNanos = TimeUnit.MINUTES.toNanos(1);
+
+    private static volatile long thresholdNanos = toNanos(Long.getLong("db.slowQuery.thresholdMillis", -1));
+    private static final Entry[] ring = new Entry[Math.max(1, Integer.getInteger("db.slowQuery.capacity", 100))];
+    private static long recorded;
+    private static final Map<String, CachedPlan> plans = new HashMap<>();
+
+    private static final class Entry {
+        final long timestamp = System.currentTimeMillis();
+        final String sql;
+        final long nanos;
+        final long rows;
+        final Object[] params;
+        final JSONArray plan;
+        final String thread = Thread.currentThread().getName();
+
+        Entry(String sql, long nanos, long rows, Object[] params, JSONArray plan) {
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.params = params;
+            this.plan = plan;
+        }
+    }
+
+    private static final class CachedPlan {
+        final JSONArray plan;
+        final long expires;
+
+        CachedPlan(JSONArray plan, long expires) {
+            this.plan = plan;
+            this.expires = expires;
+        }
+    }
+
+    private SlowQueryLog() {
+    }
+
+    private static long toNanos(long millis) {
+        return millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    // Checked on every execution, so it is a single volatile read when the log is off
+    static boolean enabled() {
+        return thresholdNanos >= 0;
+    }
+
+    static boolean isSlow(long nanos) {
+        long threshold = thresholdNanos;
+        return threshold >= 0 && nanos >= threshold;
+    }
+
+    // A negative threshold turns the log off
+    public static void setThresholdMillis(long millis) {
+        thresholdNanos = toNanos(millis);
+    }
+
+    public static long thresholdMillis() {
+        long threshold = thresholdNanos;
+        return threshold < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(threshold);
+    }
+
+    static void record(Connection conn, String sql, long nanos, long rows, Object[] params) {
+        Object[] bound = params != null ? Arrays.copyOf(params, params.length) : new Object[0];
+        JSONArray plan = plan(conn, sql, bound);
+        Entry entry = new Entry(sql, nanos, rows, bound, plan);
+        synchronized (ring) {
+            ring[(int) (recorded++ % ring.length)] = entry;
+        }
+    }
+
+    private static JSONArray plan(Connection conn, String sql, Object[] params) {
+        long now = System.nanoTime();
+        synchronized (plans) {
+            CachedPlan cached = plans.get(sql);
+            if (cached != null && now - cached.expires < 0) return cached.plan;
+        }
+
+        JSONArray plan = new JSONArray();
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 1; i < params.length; i++) {
+                stmt.setObject(i, params[i]);
+            }
+            // Rows are (id, parent, notused, detail); indent each step under its parent like the sqlite3 shell does
+            Map<Integer, Integer> depth = new HashMap<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int level = depth.getOrDefault(rs.getInt(2), -1) + 1;
+                    depth.put(rs.getInt(1), level);
+                    char[] indent = new char[level * 2];
+                    Arrays.fill(indent, ' ');
+                    plan.add(new String(indent) + rs.getString(4));
+                }
+            }
+        } catch (SQLException e) {
+            plan.add("EXPLAIN failed: " + e.getMessage());
+        }
+
+        synchronized (plans) {
+            if (plans.size() > 1000) plans.clear();
+            plans.put(sql, new CachedPlan(plan, now + planTtlNanos));
+        }
+        return plan;
+    }
+
+    // Newest first
+    public static JSONObject snapshot() {
+        JSONArray entries = new JSONArray();
+        long total;
+        synchronized (ring) {
+            total = recorded;
+            long oldest = Math.max(0, recorded - ring.length);
+            for (long i = recorded - 1; i >= oldest; i--) {
+                entries.add(toJson(ring[(int) (i % ring.length)]));
+            }
+        }
+        JSONObject result = new JSONObject();
+        result.put("threshold_ms", thresholdMillis());
+        result.put("capacity", ring.length);
+        result.put("recorded", total);
+        result.put("entries", entries);
+        return result;
+    }
+
+    public static void clear() {
+        synchronized (ring) {
+            Arrays.fill(ring, null);
+            recorded = 0;
+        }
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    private static JSONObject toJson(Entry entry) {
+        JSONArray params = new JSONArray();
+        // Parameter indexes start at 1; slot 0 is unused
+        for (int i = 1; i < entry.params.length; i++) {
+            Object value = entry.params[i];
+            params.add(value == null || value instanceof Number || value instanceof Boolean ? value : value.toString());
+        }
+        JSONObject json = new JSONObject();
+        json.put("timestamp", Instant.ofEpochMilli(entry.timestamp).toString());
+        json.put("duration_ms", entry.nanos / 1_000_000.0);
+        json.put("rows", entry.rows);
+        json.put("sql", entry.sql.trim().replaceAll("\\s+", " "));
+        json.put("params", params);
+        json.put("plan", entry.plan);
+        json.put("thread", entry.thread);
+        return json;
+    }
+}
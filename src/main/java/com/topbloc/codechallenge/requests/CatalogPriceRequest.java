@@ -0,0 +1,46 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonReader;
+
+// Body of POST and PUT /distributor-catalog: {"distributor_id": 1, "item_id": 2, "cost": 0.45}
+public final class CatalogPriceRequest {
+    private static final String[] fields = {"distributor_id", "item_id", "cost"};
+
+    public final int distributorId;
+    public final int itemId;
+    public final float cost;
+    // False when any of the three fields is missing or null
+    public final boolean complete;
+
+    private CatalogPriceRequest(int distributorId, int itemId, float cost, boolean complete) {
+        this.distributorId = distributorId;
+        this.itemId = itemId;
+        this.cost = cost;
+        this.complete = complete;
+    }
+
+    public static CatalogPriceRequest read(JsonReader in) {
+        int distributorId = 0;
+        int itemId = 0;
+        float cost = 0;
+        int present = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(fields);
+            if (field < 0 || in.nextIfNull()) {
+                if (field < 0) in.skipValue();
+                continue;
+            }
+            if (field == 0) {
+                distributorId = in.nextInt();
+            } else if (field == 1) {
+                itemId = in.nextInt();
+            } else {
+                cost = (float) in.nextDouble();
+            }
+            present |= 1 << field;
+        }
+        in.endObject();
+        return new CatalogPriceRequest(distributorId, itemId, cost, present == 0b111);
+    }
+}
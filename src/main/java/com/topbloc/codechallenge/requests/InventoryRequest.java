@@ -0,0 +1,38 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonReader;
+
+// Body of POST /inventory: {"itemId": 1, "stock": 10, "capacity": 50}
+public final class InventoryRequest {
+    private static final String[] fields = {"itemId", "stock", "capacity"};
+
+    public final int itemId;
+    public final int stock;
+    public final int capacity;
+    // False when any of the three fields is missing or null
+    public final boolean complete;
+
+    private InventoryRequest(int itemId, int stock, int capacity, boolean complete) {
+        this.itemId = itemId;
+        this.stock = stock;
+        this.capacity = capacity;
+        this.complete = complete;
+    }
+
+    public static InventoryRequest read(JsonReader in) {
+        int[] values = new int[fields.length];
+        int present = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(fields);
+            if (field < 0 || in.nextIfNull()) {
+                if (field < 0) in.skipValue();
+                continue;
+            }
+            values[field] = in.nextInt();
+            present |= 1 << field;
+        }
+        in.endObject();
+        return new InventoryRequest(values[0], values[1], values[2], present == 0b111);
+    }
+}
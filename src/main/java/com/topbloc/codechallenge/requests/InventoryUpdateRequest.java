@@ -0,0 +1,44 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonReader;
+
+// Body of PUT /inventory/:id: {"stock": 10, "capacity": 50}, where either field may be left out
+public final class InventoryUpdateRequest {
+    private static final String[] fields = {"stock", "capacity"};
+
+    public final int stock;
+    public final int capacity;
+    public final boolean hasStock;
+    public final boolean hasCapacity;
+
+    private InventoryUpdateRequest(int stock, int capacity, boolean hasStock, boolean hasCapacity) {
+        this.stock = stock;
+        this.capacity = capacity;
+        this.hasStock = hasStock;
+        this.hasCapacity = hasCapacity;
+    }
+
+    public static InventoryUpdateRequest read(JsonReader in) {
+        int stock = 0;
+        int capacity = 0;
+        boolean hasStock = false;
+        boolean hasCapacity = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(fields);
+            if (field < 0) {
+                in.skipValue();
+            } else if (in.nextIfNull()) {
+                continue;
+            } else if (field == 0) {
+                stock = in.nextInt();
+                hasStock = true;
+            } else {
+                capacity = in.nextInt();
+                hasCapacity = true;
+            }
+        }
+        in.endObject();
+        return new InventoryUpdateRequest(stock, capacity, hasStock, hasCapacity);
+    }
+}
@@ -0,0 +1,29 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonReader;
+
+// Body of POST /item and POST /distributors: {"name": "..."}
+public final class NameRequest {
+    private static final String[] fields = {"name"};
+
+    public final String name;
+
+    private NameRequest(String name) {
+        this.name = name;
+    }
+
+    public static NameRequest read(JsonReader in) {
+        String name = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(fields);
+            if (field < 0 || in.nextIfNull()) {
+                if (field < 0) in.skipValue();
+                continue;
+            }
+            name = in.nextString();
+        }
+        in.endObject();
+        return new NameRequest(name);
+    }
+}
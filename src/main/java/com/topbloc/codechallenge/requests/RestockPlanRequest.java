@@ -0,0 +1,70 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonException;
+import com.topbloc.codechallenge.json.JsonReader;
+import com.topbloc.codechallenge.json.JsonReader.Token;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Body of POST /restock/plan: {"items": [{"item_id": 1, "quantity": 10}, ...]} or {"fill": "low_stock"}
+public final class RestockPlanRequest {
+    private static final String[] fields = {"items", "fill"};
+    private static final String[] itemFields = {"item_id", "quantity"};
+    private static final String badItem = "each item needs an integer item_id and a non-negative quantity";
+
+    public final boolean fillLowStock;
+    // Requested quantity per item id in request order, with repeated ids summed; null when there is no items array
+    public final Map<Integer, Integer> quantities;
+
+    private RestockPlanRequest(boolean fillLowStock, Map<Integer, Integer> quantities) {
+        this.fillLowStock = fillLowStock;
+        this.quantities = quantities;
+    }
+
+    public static RestockPlanRequest read(JsonReader in) {
+        boolean fill = false;
+        Map<Integer, Integer> quantities = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(fields);
+            if (field == 0 && in.peek() == Token.BEGIN_ARRAY) {
+                quantities = new LinkedHashMap<>();
+                in.beginArray();
+                while (in.hasNext()) {
+                    readItem(in, quantities);
+                }
+                in.endArray();
+            } else if (field == 1 && in.peek() == Token.STRING) {
+                fill = "low_stock".equals(in.nextString());
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new RestockPlanRequest(fill, quantities);
+    }
+
+    private static void readItem(JsonReader in, Map<Integer, Integer> quantities) {
+        if (in.peek() != Token.BEGIN_OBJECT) throw new JsonException(badItem);
+        int itemId = 0;
+        int quantity = -1;
+        boolean hasItemId = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(itemFields);
+            if (field >= 0 && in.peek() != Token.NUMBER) throw new JsonException(badItem);
+            if (field == 0) {
+                itemId = in.nextInt();
+                hasItemId = true;
+            } else if (field == 1) {
+                quantity = in.nextInt();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        if (!hasItemId || quantity < 0) throw new JsonException(badItem);
+        quantities.merge(itemId, quantity, Integer::sum);
+    }
+}
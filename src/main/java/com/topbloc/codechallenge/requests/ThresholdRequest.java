@@ -0,0 +1,36 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonDecoder;
+import com.topbloc.codechallenge.json.JsonReader;
+import com.topbloc.codechallenge.json.JsonReader.Token;
+
+// Body of the admin threshold routes: a single numeric field, e.g. {"threshold": 0.25} or {"threshold_ms": 50}
+public final class ThresholdRequest {
+    public final double value;
+    // False when the field is missing or is not a number
+    public final boolean present;
+
+    private ThresholdRequest(double value, boolean present) {
+        this.value = value;
+        this.present = present;
+    }
+
+    public static JsonDecoder<ThresholdRequest> decoder(String field) {
+        String[] fields = {field};
+        return in -> {
+            double value = 0;
+            boolean present = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName(fields) == 0 && in.peek() == Token.NUMBER) {
+                    value = in.nextDouble();
+                    present = true;
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ThresholdRequest(value, present);
+        };
+    }
+}
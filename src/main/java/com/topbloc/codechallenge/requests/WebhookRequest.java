@@ -0,0 +1,29 @@
+package com.topbloc.codechallenge.requests;
+
+import com.topbloc.codechallenge.json.JsonReader;
+
+// Body of POST /alerts/webhooks: {"url": "http://localhost:9000/alerts"}
+public final class WebhookRequest {
+    private static final String[] fields = {"url"};
+
+    public final String url;
+
+    private WebhookRequest(String url) {
+        this.url = url;
+    }
+
+    public static WebhookRequest read(JsonReader in) {
+        String url = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            int field = in.nextName(fields);
+            if (field < 0 || in.nextIfNull()) {
+                if (field < 0) in.skipValue();
+                continue;
+            }
+            url = in.nextString();
+        }
+        in.endObject();
+        return new WebhookRequest(url);
+    }
+}